@@ -105,6 +105,16 @@ public class Controller{
 				return modelPM.getPackages(filter,sort);
 			}
 			
+			public ArrayList<Pair<Person,Package>> getPackages(String filter, String sort, 
+					int offset, int limit) {
+				return modelPM.getPackages(filter, sort, offset, limit);
+			}
+			
+			public ArrayList<Pair<Person,Package>> getPackagesAfter(String filter, String sort, 
+					Pair<Person,Package> after, int limit) {
+				return modelPM.getPackagesAfter(filter, sort, after, limit);
+			}
+			
 			public boolean authenticate(String password) {
 				return modelPM.checkAdminPassword(password);
 			}
@@ -219,6 +229,9 @@ public class Controller{
 		// Start view and model
 		viewFrame.start();
 		modelPM.start();
+		
+		// Stop the model when the program exits, including when the window is closed
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> modelPM.stop()));
 	}
 
 }
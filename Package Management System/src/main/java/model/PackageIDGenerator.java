@@ -0,0 +1,120 @@
+package main.java.model;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates package IDs of the form yyyyMMddHHmmss D SSS, the check in time
+ * followed by a desk digit and a three digit sequence within the second, for
+ * example 20161013153000 1 004. The IDs stay numeric for the Code 128 barcodes,
+ * and still read as a check in time.
+ *
+ * IDs increase strictly, so two check ins in the same second no longer collide,
+ * and desks with different desk IDs never share an ID. IDs are allocated with a
+ * compare and set instead of a lock. After 1000 IDs in one second the sequence
+ * carries into the next second, so bulk check ins are not capped by the clock.
+ */
+public class PackageIDGenerator {
+
+	private static final long SEQUENCE_RANGE = 1000;
+	private static final long DESK_RANGE = 10;
+	// smallest ID of this form, older IDs are the bare yyyyMMddHHmmss
+	private static final long MIN_ID = 10000000000000L * DESK_RANGE * SEQUENCE_RANGE;
+
+	private final long deskID;
+	private final ZoneId zone;
+	// last ID handed out
+	private final AtomicLong last;
+
+	/**
+	 * @param deskID			ID of this desk, from 0 to 9
+	 */
+	public PackageIDGenerator(int deskID) {
+		if(deskID < 0 || deskID >= DESK_RANGE) {
+			throw new IllegalArgumentException("Desk ID must be between 0 and " + (DESK_RANGE - 1) +
+					", was " + deskID);
+		}
+		this.deskID = deskID;
+		this.zone = ZoneId.systemDefault();
+		this.last = new AtomicLong();
+	}
+
+	/**
+	 * Returns a new package ID, greater than any ID returned before
+	 * @return					Package ID
+	 */
+	public long nextID() {
+		long first = firstIDOf(timestamp(LocalDateTime.ofInstant(Instant.now(), zone)));
+		while(true) {
+			long previous = last.get();
+			long next = first;
+			if(previous >= first) {
+				// same second, or the clock is behind IDs already handed out
+				next = previous + 1;
+				if(next % SEQUENCE_RANGE == 0) {
+					// sequence exhausted, carry into the next second
+					next = firstIDOf(timestamp(dateTimeOf(previous).plusSeconds(1)));
+				}
+			}
+			if(last.compareAndSet(previous, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Makes sure later IDs are greater than an ID handed out before, such as the
+	 * largest one in the database after a restart. This keeps the IDs unique if the
+	 * clock went back in the meantime, for example at the end of daylight saving time.
+	 * @param pkgID				ID handed out before
+	 */
+	public void advancePast(long pkgID) {
+		if(pkgID < MIN_ID) {
+			return;
+		}
+		long first = firstIDOf(pkgID / (DESK_RANGE * SEQUENCE_RANGE));
+		// an ID of another desk moves this desk on to the next second
+		long target = pkgID / SEQUENCE_RANGE == first / SEQUENCE_RANGE ? pkgID : first + SEQUENCE_RANGE - 1;
+		last.accumulateAndGet(target, Math::max);
+	}
+
+	private long firstIDOf(long timestamp) {
+		return (timestamp * DESK_RANGE + deskID) * SEQUENCE_RANGE;
+	}
+
+	/*
+	 * Returns the check in time an ID of this form starts with
+	 */
+	private static LocalDateTime dateTimeOf(long pkgID) {
+		long t = pkgID / (DESK_RANGE * SEQUENCE_RANGE);
+		return LocalDateTime.of((int) (t / 10000000000L), (int) (t / 100000000 % 100),
+				(int) (t / 1000000 % 100), (int) (t / 10000 % 100), (int) (t / 100 % 100), (int) (t % 100));
+	}
+
+	/*
+	 * Returns the time as the number yyyyMMddHHmmss
+	 */
+	private static long timestamp(LocalDateTime time) {
+		return time.getYear() * 10000000000L + time.getMonthValue() * 100000000L +
+				time.getDayOfMonth() * 1000000L + time.getHour() * 10000L +
+				time.getMinute() * 100L + time.getSecond();
+	}
+
+	/*
+	 * Manual test
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		PackageIDGenerator generator = new PackageIDGenerator(1);
+		for (int i = 0; i < 3; i++) {
+			System.out.println(generator.nextID());
+		}
+		// more than a second's worth of sequence numbers
+		long id = 0;
+		for (int i = 0; i < 2500; i++) {
+			id = generator.nextID();
+		}
+		System.out.println(id);
+	}
+}
@@ -1,6 +1,7 @@
 package main.java.model;
 
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Map;
@@ -13,6 +14,7 @@ import main.java.model.print.LabelPrinter;
 import main.java.util.Package;
 import main.java.util.Pair;
 import main.java.util.Person;
+import main.java.util.PropertyHandler;
 
 /**
  * Package Manager class functions as a large model to string together the
@@ -27,6 +29,7 @@ public class PackageManager {
 	private Database db;
 	private Emailer mailer;
 	private LabelPrinter printer;
+	private PackageIDGenerator idGenerator;
 
 	private static Logger logger = Logger.getLogger(PackageManager.class.getName());
 
@@ -39,16 +42,25 @@ public class PackageManager {
 		db = new Database(viewAdapter);
 		mailer = new Emailer(viewAdapter);
 		printer = new LabelPrinter(viewAdapter);
+		idGenerator = new PackageIDGenerator(Integer.valueOf(
+				PropertyHandler.getInstance().getProperty("package.desk_id", "0")));
 	}
 	
 	public void start() {
 		logger.info("[Model.start()] Starting model...");
 		// Start the database, mailer, and printer
 		db.start();
+		idGenerator.advancePast(db.getLastPackageID());
 		mailer.start(db.getEntries("checked_in=TRUE", "person_ID=ASCENDING"));
 		printer.start();
 	}
 	
+	public void stop() {
+		logger.info("[Model.stop()] Stopping model...");
+		// Flush any pending database changes to disk
+		db.stop();
+	}
+	
 	//TODO Functions that run on a schedule - mainly send reminders
 	
 	/*
@@ -59,9 +71,8 @@ public class PackageManager {
 		Person person = db.getPerson(personID);
 		Package pkg = db.getPackage(pkgID);
 		if(mailer.sendPackageNotification(person, pkg)) {
-			pkg.setNotificationSent(true);
-			db.editPackage(pkg);
-			return true;
+			// the package may have changed while the email was sent, so only set the flag
+			return db.markNotificationSent(pkgID);
 		}
 		return false;
 	}
@@ -121,12 +132,10 @@ public class PackageManager {
 	 */
 	
 	public long checkInPackage(String personID, String comment) {
-		// create a packageID
-		Date now = new Date();
-		SimpleDateFormat ft = new SimpleDateFormat("yyyyMMddHHmmss");
-		long pkgID = Long.valueOf(ft.format(now));
+		// create a packageID, unique even for check ins in the same second
+		long pkgID = idGenerator.nextID();
 		
-		Package pkg = new Package(pkgID, comment, now);
+		Package pkg = new Package(pkgID, comment, new Date());
 		db.checkInPackage(personID, pkg);
 		return pkg.getPackageID();
 	}
@@ -151,6 +160,35 @@ public class PackageManager {
 	public ArrayList<Pair<Person, Package>> getPackages(String filter, String sort) {
 		return db.getEntries(filter,sort);
 	}
+	
+	public ArrayList<Pair<Person, Package>> getPackages(String filter, String sort, int offset, int limit) {
+		return db.getEntries(filter, sort, offset, limit);
+	}
+	
+	public int getShelfOccupancy() {
+		return db.getShelfOccupancy();
+	}
+	
+	public int getWaitingCount(String personID) {
+		return db.getWaitingCount(personID);
+	}
+	
+	public Map<String,Integer> getWaitingCounts() {
+		return db.getWaitingCounts();
+	}
+	
+	public int getCheckInCount(LocalDate day) {
+		return db.getCheckInCount(day);
+	}
+	
+	public int getCheckInCount(LocalDateTime hour) {
+		return db.getCheckInCount(hour);
+	}
+	
+	public ArrayList<Pair<Person, Package>> getPackagesAfter(String filter, String sort, 
+			Pair<Person, Package> after, int limit) {
+		return db.getEntriesAfter(filter, sort, after, limit);
+	}
 
 	public void importPersonCSV(String fileName) {
 		db.importPersonsFromCSV(fileName);		
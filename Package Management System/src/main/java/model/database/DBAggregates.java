@@ -0,0 +1,114 @@
+package main.java.model.database;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+
+import main.java.util.Package;
+
+/**
+ * Counts over the packages that are kept up to date as packages are added, checked
+ * out, edited and removed, so dashboards and reminders can read them without
+ * going through the entries.
+ *
+ * Counts:
+ * 		waiting				packages not checked out yet, per owner
+ * 		checkInsByDay		packages checked in on each local date
+ * 		checkInsByHour		packages checked in within each local hour
+ *
+ * Each change updates a few hash map entries, and each count is one lookup.
+ *
+ * Not thread safe, maintained by DBMaps.
+ */
+public class DBAggregates {
+
+	private final ZoneId zone;
+	private HashMap<String,Integer> waiting;
+	private HashMap<LocalDate,Integer> checkInsByDay;
+	// hours are truncated local date times
+	private HashMap<LocalDateTime,Integer> checkInsByHour;
+
+	public DBAggregates() {
+		this.zone = ZoneId.systemDefault();
+		this.waiting = new HashMap<String,Integer>();
+		this.checkInsByDay = new HashMap<LocalDate,Integer>();
+		this.checkInsByHour = new HashMap<LocalDateTime,Integer>();
+	}
+
+	/**
+	 * Counts a package
+	 * @param personID			ID of the owner
+	 * @param pkg				Package to count
+	 */
+	public void add(String personID, Package pkg) {
+		update(personID, pkg, 1);
+	}
+
+	/**
+	 * Stops counting a package, which must have been counted with the same owner and
+	 * the same dates
+	 * @param personID			ID of the owner
+	 * @param pkg				Package to stop counting
+	 */
+	public void remove(String personID, Package pkg) {
+		update(personID, pkg, -1);
+	}
+
+	/**
+	 * Returns the number of packages a person has not checked out yet
+	 * @param personID			ID of the person
+	 * @return					Number of waiting packages
+	 */
+	public int getWaitingCount(String personID) {
+		return waiting.getOrDefault(personID, 0);
+	}
+
+	/**
+	 * Returns the number of waiting packages of every person with any
+	 * @return					New map of personID to number of waiting packages
+	 */
+	public HashMap<String,Integer> getWaitingCounts() {
+		return new HashMap<String,Integer>(waiting);
+	}
+
+	/**
+	 * Returns the number of packages checked in on a day
+	 * @param day				Local date
+	 * @return					Number of check ins
+	 */
+	public int getCheckInCount(LocalDate day) {
+		return checkInsByDay.getOrDefault(day, 0);
+	}
+
+	/**
+	 * Returns the number of packages checked in within an hour
+	 * @param hour				Local date time within the hour
+	 * @return					Number of check ins
+	 */
+	public int getCheckInCount(LocalDateTime hour) {
+		return checkInsByHour.getOrDefault(hour.truncatedTo(ChronoUnit.HOURS), 0);
+	}
+
+	private void update(String personID, Package pkg, int delta) {
+		if(pkg.getCheckOutDate() == null) {
+			add(waiting, personID, delta);
+		}
+		if(pkg.getCheckInDate() != null) {
+			LocalDateTime checkIn = LocalDateTime.ofInstant(Instant.ofEpochMilli(pkg.getCheckInMillis()), zone);
+			add(checkInsByDay, checkIn.toLocalDate(), delta);
+			add(checkInsByHour, checkIn.truncatedTo(ChronoUnit.HOURS), delta);
+		}
+	}
+
+	/*
+	 * Adds to a count, dropping counts that reach zero so the maps only hold
+	 * persons and times that have packages
+	 */
+	private static <K> void add(Map<K,Integer> counts, K key, int delta) {
+		counts.merge(key, delta, (count, change) -> count + change == 0 ? null : count + change);
+	}
+}
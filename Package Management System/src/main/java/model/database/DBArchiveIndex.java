@@ -0,0 +1,150 @@
+package main.java.model.database;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import main.java.util.FileIO;
+
+/**
+ * In-memory index of the person IDs with a file in the archive directory, so that
+ * adding a person does not list the directory. The index is built once and kept
+ * current by the database as persons are archived and restored. Optionally a
+ * WatchService thread picks up files added or removed outside of the program.
+ */
+public class DBArchiveIndex {
+
+	private String archiveDirPath;
+	private Set<String> personIDs;
+
+	private WatchService watchService;
+	private Thread watchThread;
+
+	private Logger logger;
+
+	public DBArchiveIndex(String archiveDirPath) {
+		this.archiveDirPath = archiveDirPath;
+		this.personIDs = ConcurrentHashMap.newKeySet();
+		this.logger = Logger.getLogger(DBArchiveIndex.class.getName());
+	}
+
+	/**
+	 * Builds the index from the files in the archive directory
+	 */
+	public void build() {
+		personIDs.clear();
+		for (String fileName: FileIO.getFileNamesFromDirectory(archiveDirPath)) {
+			if(!fileName.endsWith(DBFileIO.TEMP_SUFFIX)) {
+				personIDs.add(fileName);
+			}
+		}
+		logger.info("Indexed " + personIDs.size() + " archived persons");
+	}
+
+	/**
+	 * Starts a background thread updating the index when files in the archive
+	 * directory are created or deleted by another program
+	 */
+	public void startWatching() {
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			Paths.get(archiveDirPath).register(watchService,
+					StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException e) {
+			logger.warning("Failed to watch the archive directory, external changes will not be seen");
+			watchService = null;
+			return;
+		}
+		watchThread = new Thread(this::watch, "DB archive watcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/**
+	 * Stops the watching thread if it is running
+	 */
+	public void stopWatching() {
+		if(watchService == null) {
+			return;
+		}
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.warning("Failed to close the archive watcher");
+		}
+		watchService = null;
+		watchThread = null;
+	}
+
+	/**
+	 * Returns whether a person has a file in the archive
+	 * @param personID			ID of the person
+	 * @return					True if the person is archived
+	 */
+	public boolean contains(String personID) {
+		return personIDs.contains(personID);
+	}
+
+	/**
+	 * Records that a person file was written to the archive
+	 * @param personID			ID of the archived person
+	 */
+	public void add(String personID) {
+		personIDs.add(personID);
+	}
+
+	/**
+	 * Records that a person file was removed from the archive
+	 * @param personID			ID of the restored person
+	 */
+	public void remove(String personID) {
+		personIDs.remove(personID);
+	}
+
+	public int size() {
+		return personIDs.size();
+	}
+
+	/*
+	 * Applies directory events to the index until the watch service is closed
+	 */
+	private void watch() {
+		WatchService service = watchService;
+		try {
+			while(true) {
+				WatchKey key = service.take();
+				for (WatchEvent<?> event: key.pollEvents()) {
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// events were lost, so start again from the directory
+						build();
+						continue;
+					}
+					String fileName = ((Path) event.context()).getFileName().toString();
+					if(fileName.endsWith(DBFileIO.TEMP_SUFFIX)) {
+						continue;
+					}
+					if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+						personIDs.add(fileName);
+					} else {
+						personIDs.remove(fileName);
+					}
+				}
+				if(!key.reset()) {
+					logger.warning("Archive directory is no longer accessible, stopped watching it");
+					return;
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+}
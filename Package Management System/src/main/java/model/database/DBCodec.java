@@ -0,0 +1,242 @@
+package main.java.model.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+
+import main.java.util.Package;
+import main.java.util.Pair;
+import main.java.util.Person;
+
+/**
+ * Compact binary encoding of person and package records.
+ *
+ * Person file format (version 1):
+ * 		magic				4 bytes "PMSB"
+ * 		version				1 byte
+ * 		person				lastName, firstName, emailAddress, personID as strings
+ * 		package count		varint
+ * 		packages			for each package:
+ * 			packageID		varint
+ * 			comment			string
+ * 			checkInDate		varint epoch millis
+ * 			checkOutDate	varint epoch millis + 1, 0 if not checked out
+ * 			flags			1 byte, bit 0 set if the notification was sent
+ *
+ * Snapshot file format (version 1):
+ * 		magic				4 bytes "PMSS"
+ * 		version				1 byte
+ * 		person count		varint
+ * 		persons				for each person, the person and packages as in a person file
+ *
+ * Strings are written as a varint of the UTF-8 length + 1 followed by the bytes,
+ * with a length of 0 marking a null string.
+ */
+public class DBCodec {
+
+	private static final byte[] MAGIC = {'P', 'M', 'S', 'B'};
+	private static final byte[] SNAPSHOT_MAGIC = {'P', 'M', 'S', 'S'};
+	private static final byte VERSION = 1;
+
+	private static final int NOTIFICATION_SENT = 1;
+
+	/**
+	 * Encodes a person and their packages into the person file format
+	 * @param dbPair			Pair containing a person and ArrayList of all packages associated
+	 * @return					Encoded bytes
+	 */
+	public static byte[] encode(Pair<Person,ArrayList<Package>> dbPair) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 32 * dbPair.second.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			writePersonPackages(out, dbPair);
+		} catch (IOException e) {
+			// writing to a byte array cannot fail
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a person and their packages from the person file format
+	 * @param data				Encoded bytes
+	 * @return					Pair of the person and their packages
+	 * @throws IOException		If the data is truncated or not in the person file format
+	 */
+	public static Pair<Person,ArrayList<Package>> decode(byte[] data) throws IOException {
+		if(!isEncoded(data)) {
+			throw new IOException("Data is not in the binary person file format");
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		in.skipBytes(MAGIC.length);
+		byte version = in.readByte();
+		if(version != VERSION) {
+			throw new IOException("Unsupported person file version " + version);
+		}
+
+		return readPersonPackages(in);
+	}
+	
+	/**
+	 * Writes the snapshot file header and person count
+	 * @param out				Stream to write the header to
+	 * @param count				Number of persons that will follow the header
+	 * @throws IOException
+	 */
+	public static void writeSnapshotHeader(DataOutputStream out, int count) throws IOException {
+		out.write(SNAPSHOT_MAGIC);
+		out.writeByte(VERSION);
+		writeVarLong(out, count);
+	}
+	
+	/**
+	 * Reads the snapshot file header
+	 * @param in				Stream to read the header from
+	 * @return					Number of persons that follow the header
+	 * @throws IOException		If the stream is not a snapshot file
+	 */
+	public static int readSnapshotHeader(DataInputStream in) throws IOException {
+		byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+		in.readFully(magic);
+		for (int i = 0; i < magic.length; i++) {
+			if(magic[i] != SNAPSHOT_MAGIC[i]) {
+				throw new IOException("Data is not in the snapshot file format");
+			}
+		}
+		byte version = in.readByte();
+		if(version != VERSION) {
+			throw new IOException("Unsupported snapshot file version " + version);
+		}
+		return (int) readVarLong(in);
+	}
+
+	/**
+	 * Returns whether the data starts with the binary person file header
+	 * @param data				Contents of a person file
+	 * @return					True if the data is in the binary format
+	 */
+	public static boolean isEncoded(byte[] data) {
+		if(data.length < MAGIC.length + 1) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if(data[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Record encodings, also used by the journal and snapshot
+	 */
+
+	public static void writePersonPackages(DataOutputStream out,
+			Pair<Person,ArrayList<Package>> dbPair) throws IOException {
+		writePerson(out, dbPair.first);
+		writeVarLong(out, dbPair.second.size());
+		for (Package pkg: dbPair.second) {
+			writePackage(out, pkg);
+		}
+	}
+
+	public static Pair<Person,ArrayList<Package>> readPersonPackages(DataInputStream in)
+			throws IOException {
+		Person person = readPerson(in);
+		int count = (int) readVarLong(in);
+		ArrayList<Package> packages = new ArrayList<Package>(count);
+		for (int i = 0; i < count; i++) {
+			packages.add(readPackage(in));
+		}
+		return new Pair<Person,ArrayList<Package>>(person, packages);
+	}
+
+	public static void writePerson(DataOutputStream out, Person person) throws IOException {
+		writeString(out, person.getLastName());
+		writeString(out, person.getFirstName());
+		writeString(out, person.getEmailAddress());
+		writeString(out, person.getPersonID());
+	}
+
+	public static Person readPerson(DataInputStream in) throws IOException {
+		String lastName = readString(in);
+		String firstName = readString(in);
+		String emailAddress = readString(in);
+		String personID = readString(in);
+		return new Person(lastName, firstName, emailAddress, personID);
+	}
+
+	public static void writePackage(DataOutputStream out, Package pkg) throws IOException {
+		writeVarLong(out, pkg.getPackageID());
+		writeString(out, pkg.getComment());
+		writeVarLong(out, pkg.getCheckInDate().getTime());
+		writeVarLong(out, pkg.getCheckOutDate() == null ? 0 : pkg.getCheckOutDate().getTime() + 1);
+		out.writeByte(pkg.isNotificationSent() ? NOTIFICATION_SENT : 0);
+	}
+
+	public static Package readPackage(DataInputStream in) throws IOException {
+		long pkgID = readVarLong(in);
+		String comment = readString(in);
+		Date checkInDate = new Date(readVarLong(in));
+		long checkOutTime = readVarLong(in);
+		int flags = in.readByte();
+
+		Package pkg = new Package(pkgID, comment, checkInDate);
+		if(checkOutTime != 0) {
+			pkg.setCheckOutDate(new Date(checkOutTime - 1));
+		}
+		pkg.setNotificationSent((flags & NOTIFICATION_SENT) != 0);
+		return pkg;
+	}
+
+	public static void writeString(DataOutputStream out, String s) throws IOException {
+		if(s == null) {
+			writeVarLong(out, 0);
+			return;
+		}
+		byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(out, utf8.length + 1);
+		out.write(utf8);
+	}
+
+	public static String readString(DataInputStream in) throws IOException {
+		int length = (int) readVarLong(in);
+		if(length == 0) {
+			return null;
+		}
+		byte[] utf8 = new byte[length - 1];
+		in.readFully(utf8);
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Unsigned LEB128 variable length integers, 7 bits per byte
+	 */
+
+	public static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -0,0 +1,36 @@
+package main.java.model.database;
+
+import java.util.logging.Logger;
+
+/**
+ * Durability policy for database writes, set with the database.durability property.
+ * Person files and snapshots are always written to a temporary file and renamed into
+ * place, so a crash can never leave a truncated file behind; the policy controls when
+ * data is forced from the OS buffers to the disk.
+ */
+public enum DBDurability {
+	/** Force every journal record, package record and file to disk before continuing */
+	FSYNC,
+	/** Force files before they are renamed into place, and journal and package records
+	 * every database.group_commit_ms, so a crash loses at most that much time */
+	GROUP,
+	/** Leave all writes in the OS buffers; a power loss may lose recent changes */
+	BUFFERED;
+
+	/**
+	 * Returns the policy named by a property value, defaulting to GROUP
+	 * @param value				Name of the policy, case insensitive
+	 * @return					Durability policy
+	 */
+	public static DBDurability parse(String value) {
+		if(value != null) {
+			try {
+				return valueOf(value.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				Logger.getLogger(DBDurability.class.getName()).warning(
+						"Unknown durability policy " + value + ", using GROUP");
+			}
+		}
+		return GROUP;
+	}
+}
@@ -0,0 +1,154 @@
+package main.java.model.database;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import main.java.util.LongObjectMap;
+import main.java.util.Package;
+import main.java.util.Pair;
+import main.java.util.Person;
+
+/**
+ * Every entry of the DBMaps, kept in fixed size chunks so that snapshots can be taken
+ * without copying the entries. A snapshot only copies the array of chunk references and
+ * marks the chunks as shared. The first change to a shared chunk afterwards copies that
+ * chunk alone, so a write costs at most one chunk copy and a snapshot after a write
+ * costs one reference per chunk, instead of both rebuilding the whole list.
+ *
+ * Removing an entry moves the last entry into its place, so entries are in no
+ * particular order.
+ *
+ * Not thread safe, maintained by DBMaps.
+ */
+public class DBEntryList {
+
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private Pair<Person,Package>[][] chunks;
+	// chunks that a snapshot holds, which must be copied before they are changed
+	private boolean[] shared;
+	private int size;
+	// position of the entry of each package ID
+	private LongObjectMap<Integer> positions;
+
+	@SuppressWarnings("unchecked")
+	public DBEntryList() {
+		this.chunks = new Pair[16][];
+		this.shared = new boolean[16];
+		this.size = 0;
+		this.positions = new LongObjectMap<Integer>();
+	}
+
+	/**
+	 * Adds the entry of a package, or replaces it if the package already has one
+	 * @param entry				Owner and package
+	 */
+	public void put(Pair<Person,Package> entry) {
+		long pkgID = entry.second.getPackageID();
+		Integer position = positions.get(pkgID);
+		if(position == null) {
+			position = size++;
+			positions.put(pkgID, position);
+		}
+		set(position, entry);
+	}
+
+	/**
+	 * Removes the entry of a package
+	 * @param pkgID				ID of the package
+	 */
+	public void remove(long pkgID) {
+		Integer position = positions.remove(pkgID);
+		if(position == null) {
+			return;
+		}
+		int last = --size;
+		if(position != last) {
+			Pair<Person,Package> moved = get(last);
+			set(position, moved);
+			positions.put(moved.second.getPackageID(), position);
+		}
+		if((last & CHUNK_MASK) == 0) {
+			// the last chunk is empty, let it go
+			chunks[last >> CHUNK_SHIFT] = null;
+			shared[last >> CHUNK_SHIFT] = false;
+		} else {
+			set(last, null);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the entries, which later changes do not affect
+	 * @param version			Version of the maps
+	 * @return					Snapshot of every entry
+	 */
+	public DBSnapshot snapshot(long version) {
+		int chunkCount = (size + CHUNK_MASK) >> CHUNK_SHIFT;
+		Arrays.fill(shared, 0, chunkCount, true);
+		return new DBSnapshot(version, new ChunkList(Arrays.copyOf(chunks, chunkCount), size));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private Pair<Person,Package> get(int position) {
+		return chunks[position >> CHUNK_SHIFT][position & CHUNK_MASK];
+	}
+
+	@SuppressWarnings("unchecked")
+	private void set(int position, Pair<Person,Package> entry) {
+		int chunk = position >> CHUNK_SHIFT;
+		if(chunk == chunks.length) {
+			chunks = Arrays.copyOf(chunks, chunks.length * 2);
+			shared = Arrays.copyOf(shared, shared.length * 2);
+		}
+		if(chunks[chunk] == null) {
+			chunks[chunk] = new Pair[CHUNK_SIZE];
+		} else if(shared[chunk]) {
+			chunks[chunk] = chunks[chunk].clone();
+			shared[chunk] = false;
+		}
+		chunks[chunk][position & CHUNK_MASK] = entry;
+	}
+
+	/*
+	 * Unmodifiable list over chunks that are no longer changed
+	 */
+	private static class ChunkList extends AbstractList<Pair<Person,Package>> implements RandomAccess {
+
+		private final Pair<Person,Package>[][] chunks;
+		private final int size;
+
+		ChunkList(Pair<Person,Package>[][] chunks, int size) {
+			this.chunks = chunks;
+			this.size = size;
+		}
+
+		@Override
+		public Pair<Person,Package> get(int index) {
+			if(index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return chunks[index >> CHUNK_SHIFT][index & CHUNK_MASK];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Object[] toArray() {
+			// copies whole chunks, as new ArrayList does with the list
+			Object[] result = new Object[size];
+			for (int start = 0; start < size; start += CHUNK_SIZE) {
+				System.arraycopy(chunks[start >> CHUNK_SHIFT], 0, result, start, Math.min(CHUNK_SIZE, size - start));
+			}
+			return result;
+		}
+	}
+}
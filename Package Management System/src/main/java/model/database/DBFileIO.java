@@ -1,25 +1,36 @@
 package main.java.model.database;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
+import main.java.util.CSVReader;
 import main.java.util.Package;
 import main.java.util.Pair;
 import main.java.util.Person;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 /**
  * Class contains functions for writing database entries to file and 
@@ -27,64 +38,199 @@ import com.google.gson.reflect.TypeToken;
  */
 public class DBFileIO {
 	
+	/** Suffix of the temporary files that are renamed over database files once written */
+	public static final String TEMP_SUFFIX = ".tmp";
+	
+	// indices into the column mapping of a CSV roster
+	private static final int CSV_LAST_NAME = 0;
+	private static final int CSV_FIRST_NAME = 1;
+	private static final int CSV_EMAIL = 2;
+	private static final int CSV_ID = 3;
+	
 	private Logger logger; 
+	private Gson gson;
+	private DBDurability durability;
 	
 	public DBFileIO() {
 		this.logger = Logger.getLogger(DBFileIO.class.getName());
+		this.gson = new Gson();
+		this.durability = DBDurability.GROUP;
+	}
+	
+	/**
+	 * Sets whether files are forced to disk before they are renamed into place
+	 * @param durability		Durability policy, files are forced unless BUFFERED
+	 */
+	public void setDurability(DBDurability durability) {
+		this.durability = durability;
 	}
 	
 	/**
 	 * Function that will write a pair containing a person object and all associated packages
-	 * to the specified JSON file. 
+	 * to the specified file in the binary person file format (see DBCodec).
+	 * The file is replaced atomically, so it is never left partially written.
 	 * 
 	 * @param DBPair			Pair containing a person and ArrayList of all packages associated
 	 * @param filePath			Path to the file to be written
 	 * @throws IOException
 	 * @throws FileNotFoundException
 	 */
-	public void writeDatabaseJSONFile(Pair<Person,ArrayList<Package>> DBPair, String filePath) 
+	public void writeDatabaseFile(Pair<Person,ArrayList<Package>> DBPair, String filePath) 
 			throws IOException,FileNotFoundException {
 		
-		// initialize gson object
-		Gson gson = new GsonBuilder().setPrettyPrinting().create();
-		
-		// open file
-		FileOutputStream outfile = new FileOutputStream(filePath);
-		DataOutputStream outStream = new DataOutputStream(outfile);
-		
-		String json = gson.toJson(DBPair); // serialize output
-		outStream.writeUTF(json); // write output to file
-		
-		outfile.close();
+		// open temporary file
+		File tempFile = new File(filePath + TEMP_SUFFIX);
+		FileOutputStream outfile = new FileOutputStream(tempFile);
+		try {
+			outfile.write(DBCodec.encode(DBPair)); // write serialized output to file
+			syncFile(outfile);
+		} finally {
+			outfile.close();
+		}
 		
+		replaceFile(tempFile, filePath);
 	}
 	/**
-	 * Function that will read a specified JSON file and return the person and packages
-	 * contained within
+	 * Function that will read a specified person file and return the person and packages
+	 * contained within. Files still in the legacy JSON format are migrated to the
+	 * binary format after they are read.
 	 * 
 	 * @param filePath			Path to the file with the person information
 	 * @return					Returns a pair of person and packages in arrayList object
 	 * @throws IOException
 	 * @throws FileNotFoundException
 	 */
-	public Pair<Person,ArrayList<Package>> readDatabaseJSONFile(String filePath) 
+	public Pair<Person,ArrayList<Package>> readDatabaseFile(String filePath) 
 			throws IOException,FileNotFoundException {
 		
-		// initialize gson object
-		Gson gson = new Gson();
-
-		// open file to read
-		FileInputStream infile = new FileInputStream(filePath);
-		DataInputStream inStream = new DataInputStream(infile);
+		byte[] data = Files.readAllBytes(Paths.get(filePath));
+		if(DBCodec.isEncoded(data)) {
+			return DBCodec.decode(data);
+		}
 		
-		// read model.database file
-		String json = inStream.readUTF();
+		// migrate legacy file
+		Pair<Person,ArrayList<Package>> DBPair = readDatabaseJSON(data);
+		writeDatabaseFile(DBPair, filePath);
+		logger.info(filePath + " was migrated to the binary format");
+		return DBPair;
+	}
+	
+	/**
+	 * Writes a snapshot of every person and their packages to a single file. The snapshot
+	 * is written to a temporary file first and renamed over filePath once complete, so
+	 * a failed write leaves any previous snapshot intact.
+	 * 
+	 * @param DBPairs			Pairs of every person and all packages associated
+	 * @param filePath			Path to the snapshot file
+	 * @throws IOException
+	 */
+	public void writeSnapshotFile(ArrayList<Pair<Person,ArrayList<Package>>> DBPairs, String filePath)
+			throws IOException {
 		
-		inStream.close();
+		File tempFile = new File(filePath + TEMP_SUFFIX);
+		FileOutputStream outfile = new FileOutputStream(tempFile);
+		DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(outfile));
+		try {
+			DBCodec.writeSnapshotHeader(outStream, DBPairs.size());
+			for (Pair<Person,ArrayList<Package>> DBPair: DBPairs) {
+				DBCodec.writePersonPackages(outStream, DBPair);
+			}
+			outStream.flush();
+			syncFile(outfile);
+		} finally {
+			outStream.close();
+		}
+		
+		replaceFile(tempFile, filePath);
+	}
+	
+	/*
+	 * Forces a written file to disk unless the durability policy is BUFFERED
+	 */
+	private void syncFile(FileOutputStream outfile) throws IOException {
+		if(durability != DBDurability.BUFFERED) {
+			outfile.getFD().sync();
+		}
+	}
+	
+	/*
+	 * Renames a completely written temporary file over filePath, atomically where the
+	 * file system supports it
+	 */
+	private void replaceFile(File tempFile, String filePath) throws IOException {
+		try {
+			Files.move(tempFile.toPath(), Paths.get(filePath), 
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Reads every person and their packages from a snapshot file
+	 * 
+	 * @param filePath			Path to the snapshot file
+	 * @return					Pairs of every person and all packages associated
+	 * @throws IOException		If the snapshot is missing, truncated or corrupt
+	 */
+	public ArrayList<Pair<Person,ArrayList<Package>>> readSnapshotFile(String filePath)
+			throws IOException {
+		
+		DataInputStream inStream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(filePath)));
+		try {
+			int count = DBCodec.readSnapshotHeader(inStream);
+			ArrayList<Pair<Person,ArrayList<Package>>> DBPairs = 
+					new ArrayList<Pair<Person,ArrayList<Package>>>(count);
+			for (int i = 0; i < count; i++) {
+				DBPairs.add(DBCodec.readPersonPackages(inStream));
+			}
+			return DBPairs;
+		} finally {
+			inStream.close();
+		}
+	}
+	
+	/*
+	 * Deserializes the legacy person file format, a JSON string written with writeUTF
+	 */
+	private Pair<Person,ArrayList<Package>> readDatabaseJSON(byte[] data) throws IOException {
+		DataInputStream inStream = new DataInputStream(new ByteArrayInputStream(data));
+		String json = inStream.readUTF();
 		
 		// Obtain the type of the deserialized output (see gson documentation)
 		Type PairType = new TypeToken<Pair<Person,ArrayList<Package>>>(){}.getType();
-		return gson.fromJson(json, PairType); // return deserialized output
+		Pair<Person,ArrayList<Package>> DBPair;
+		try {
+			DBPair = gson.fromJson(json, PairType);
+		} catch (JsonParseException e) {
+			throw new IOException("Person file is not valid JSON", e);
+		}
+		if(DBPair == null || DBPair.first == null) {
+			throw new IOException("Person file is empty");
+		}
+		
+		// gson skips the constructors, so rebuild the objects to derive their sort keys
+		// and date millis
+		Person person = DBPair.first;
+		person = new Person(person.getLastName(), person.getFirstName(), person.getEmailAddress(),
+				person.getPersonID());
+		ArrayList<Package> pkgs = new ArrayList<Package>();
+		if(DBPair.second != null) {
+			for (Package pkg: DBPair.second) {
+				if(pkg != null) {
+					pkgs.add(rebuildPackage(pkg));
+				}
+			}
+		}
+		return new Pair<Person,ArrayList<Package>>(person, pkgs);
+	}
+	
+	private static Package rebuildPackage(Package pkg) {
+		Package rebuilt = new Package(pkg.getPackageID(), pkg.getComment(), pkg.getCheckInDate());
+		rebuilt.setCheckOutDate(pkg.getCheckOutDate());
+		rebuilt.setNotificationSent(pkg.isNotificationSent());
+		return rebuilt;
 	}
 	
 	/**
@@ -109,74 +255,118 @@ public class DBFileIO {
 	 */
 	public ArrayList<Person> readDatabaseCSVFile(String filePath, ArrayList<Pair<String,String>> failed) 
 			throws IOException, FileNotFoundException, FileFormatException{
-		
 		ArrayList<Person> personList = new ArrayList<Person>();
+		readDatabaseCSVFile(filePath, failed, personList::add);
+		return personList;
+	}
+	
+	/**
+	 * Reads a CSV file one record at a time, passing each person to a consumer as it
+	 * is read so that the file is never held in memory.
+	 * 
+	 * The file is parsed as RFC 4180 CSV, so fields may be quoted to contain commas,
+	 * quotes or line breaks, and a byte order mark is ignored. The header names the
+	 * columns, which may appear in any order and are matched by name: the last name,
+	 * first name, email and ID columns are those whose names contain "last", "first",
+	 * "mail" and "id". Other columns are ignored.
+	 * 
+	 * @param filePath			Name of the CSV file to read from
+	 * @param failed			ArrayList containing a pair with name of 
+	 * 							the persons that failed to be read and reason
+	 * @param consumer			Receives each person read from the file
+	 * @throws IOException
+	 * @throws FileNotFoundException
+	 * @throws FileFormatException 
+	 */
+	public void readDatabaseCSVFile(String filePath, ArrayList<Pair<String,String>> failed,
+			Consumer<Person> consumer) throws IOException, FileNotFoundException, FileFormatException {
 		
-		BufferedReader br = null;
-		String line = "";
-		String delimiter = ",";
-		
-		try {
-			 
-			br = new BufferedReader(new FileReader(filePath));
+		try (CSVReader csv = new CSVReader(new BufferedReader(new InputStreamReader(
+				new FileInputStream(filePath), StandardCharsets.UTF_8)))) {
 			HashSet<String> personIDSet = new HashSet<String> ();
 			
 			//handle header
-			line = br.readLine();
-			String[] header = line.split(delimiter,4);
-			if (!(header[0].toLowerCase().contains("last")) ||
-					!(header[1].toLowerCase().contains("first")) ||
-					!(header[2].toLowerCase().contains("mail")) ||
-					!(header[3].toLowerCase().contains("id"))) {
+			String[] header = csv.readRecord();
+			int[] columns = mapCSVColumns(header);
+			if(columns == null) {
 				throw new FileFormatException("File must be .csv with appropriate header: \n"
 						+ "Last Name,First Name,Email Address,ID");
 			}
 			
 			// loop through the file
-			while ((line = br.readLine()) != null) {
+			String[] record;
+			while ((record = csv.readRecord()) != null) {
 				
 				// ignore empty lines
-				if(line == "") {
+				if(CSVReader.isBlank(record)) {
 					continue;
 				}
 				
-				// split up the line
-				String[] personElements = line.split(delimiter,4);
-				String lastName = personElements[0];
-				String firstName = personElements[1];
-				String emailAddress = personElements[2];
-				String personID = personElements[3];
+				String lastName = getCSVField(record, columns[CSV_LAST_NAME]);
+				String firstName = getCSVField(record, columns[CSV_FIRST_NAME]);
+				String emailAddress = getCSVField(record, columns[CSV_EMAIL]);
+				String personID = getCSVField(record, columns[CSV_ID]);
 				
 				// handle special case
 				if(personID.equals("")) {
 					failed.add(new Pair<String,String>(
 							firstName + ' ' + lastName, "ID not provided"));
 					continue;
-				} else if(personIDSet.contains(personID)) { 
+				} else if(!personIDSet.add(personID)) { 
 					failed.add(new Pair<String,String>(
 							firstName + ' ' + lastName, "Duplicate ID"));
 					continue;
 				}
 				else if(emailAddress.equals("")) {
 					emailAddress = Person.generateEmail(personID);
-					System.out.println("Email automatically generated for "
+					logger.info("Email automatically generated for "
 							+ firstName + ' ' + lastName);
 				}
 				
-				Person person = new Person(lastName,firstName,emailAddress,personID);
-				personList.add(person);
-				personIDSet.add(personID);
-	 
-			}
-	 
-		} finally {
-			if(br != null) {
-				br.close();
+				consumer.accept(new Person(lastName,firstName,emailAddress,personID));
 			}
 		}
 	 
 		logger.info(filePath + " was successfully read");
-		return personList;
+	}
+	
+	/*
+	 * Returns the index of the last name, first name, email and ID columns in a CSV
+	 * header, or null if any of them is missing
+	 */
+	private int[] mapCSVColumns(String[] header) {
+		if(header == null) {
+			return null;
+		}
+		int[] columns = {-1, -1, -1, -1};
+		for (int i = 0; i < header.length; i++) {
+			String name = header[i].trim().toLowerCase();
+			int column;
+			if(name.contains("mail")) {
+				column = CSV_EMAIL;
+			} else if(name.contains("last")) {
+				column = CSV_LAST_NAME;
+			} else if(name.contains("first")) {
+				column = CSV_FIRST_NAME;
+			} else if(name.matches(".*\\bid\\b.*") || name.endsWith("id")) {
+				column = CSV_ID;
+			} else {
+				continue;
+			}
+			if(columns[column] < 0) {
+				columns[column] = i;
+			}
+		}
+		for (int index: columns) {
+			if(index < 0) {
+				return null;
+			}
+		}
+		return columns;
+	}
+	
+	private static String getCSVField(String[] record, int column) {
+		return column < record.length ? record[column].trim() : "";
 	}
 	
 	public static void main(String[] args) {
@@ -195,16 +385,16 @@ public class DBFileIO {
 
 		DBFileIO json = new DBFileIO();
 		try {
-			// test writing to JSON file
+			// test writing to file
 			String fileName1 = "testFiles/" + navin.getPersonID() + ".txt";
 			String fileName2 = "testFiles/" + chris.getPersonID() + ".txt";
-			json.writeDatabaseJSONFile(new Pair<Person,ArrayList<Package>>(navin,packages),fileName1);
-			json.writeDatabaseJSONFile(
+			json.writeDatabaseFile(new Pair<Person,ArrayList<Package>>(navin,packages),fileName1);
+			json.writeDatabaseFile(
 					new Pair<Person,ArrayList<Package>>(chris,new ArrayList<Package>()),fileName2);
 
-			// test reading from JSON file
-			Pair<Person,ArrayList<Package>> testPair1 = json.readDatabaseJSONFile(fileName1);
-			Pair<Person,ArrayList<Package>> testPair2 = json.readDatabaseJSONFile(fileName2);
+			// test reading from file
+			Pair<Person,ArrayList<Package>> testPair1 = json.readDatabaseFile(fileName1);
+			Pair<Person,ArrayList<Package>> testPair2 = json.readDatabaseFile(fileName2);
 			
 			System.out.println(testPair1.first.getEmailAddress());
 			System.out.println(testPair1.second.toString());
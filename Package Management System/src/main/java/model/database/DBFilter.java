@@ -0,0 +1,457 @@
+package main.java.model.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import main.java.util.LongObjectMap;
+import main.java.util.Package;
+import main.java.util.Pair;
+import main.java.util.Person;
+
+/**
+ * Node of a parsed filter expression, see DBFormat.filter for the language.
+ * Predicates test one field of an entry and are combined by And, Or and Not.
+ *
+ * Besides testing entries, a node can name the entries it may match from an index
+ * of the DBMaps. The planner in DBQuery asks the root for these candidates, so the
+ * expression is only tested against them instead of against every entry. An And
+ * uses its cheapest indexed predicate, an Or the union of its children if each of
+ * them is indexed, and a filter without candidates falls back to every entry.
+ *
+ * Immutable, so parsed filters can be shared between threads.
+ */
+public abstract class DBFilter {
+
+	// costs of the ways to find candidates, cheapest first
+	static final int COST_PACKAGE = 1;
+	static final int COST_PERSON = 2;
+	static final int COST_ACTIVE = 3;
+	static final int COST_DATE = 4;
+	static final int COST_SCAN = Integer.MAX_VALUE;
+
+	// shorter name searches match too many persons to narrow the entries
+	private static final int MIN_INDEXED_NAME = 3;
+
+	/**
+	 * Returns whether an entry matches the filter
+	 * @param entry				Entry to test
+	 * @param context			Context of the run the entry is tested in
+	 * @return					True if the entry matches
+	 */
+	public abstract boolean test(Pair<Person,Package> entry, Context context);
+
+	/*
+	 * Returns the cost of finding the candidates of this filter, used to rank the
+	 * children of an And. COST_SCAN if the filter has no candidates.
+	 */
+	int cost() {
+		return COST_SCAN;
+	}
+
+	/*
+	 * Returns entries including every entry the filter matches, read from an index of
+	 * the maps, or null if no index narrows them and every entry has to be scanned
+	 */
+	List<Pair<Person,Package>> candidates(DBMaps dbMaps, Context context) {
+		return null;
+	}
+
+	/**
+	 * State of one run of a filter. Person name searches are looked up in the name
+	 * index of the maps once per run, and relative dates are resolved against the day
+	 * of the run, both shared by the threads testing the entries.
+	 */
+	public static class Context {
+
+		private final DBMaps dbMaps;
+		private final ConcurrentHashMap<String,Set<String>> personIDs;
+		private final ConcurrentHashMap<String,long[]> dateRanges;
+
+		/**
+		 * @param dbMaps			Maps to search person names in, or null to scan the names
+		 */
+		public Context(DBMaps dbMaps) {
+			this.dbMaps = dbMaps;
+			this.personIDs = new ConcurrentHashMap<String,Set<String>>();
+			this.dateRanges = new ConcurrentHashMap<String,long[]>();
+		}
+
+		/*
+		 * Returns the IDs of the persons matching a lower case name search, or null if
+		 * there are no maps to search
+		 */
+		Set<String> searchPersons(String personName) {
+			if(dbMaps == null) {
+				return null;
+			}
+			return personIDs.computeIfAbsent(personName,
+					name -> new HashSet<String>(dbMaps.searchPersonIDs(name)));
+		}
+
+		/*
+		 * Returns the range of epoch millis of a relative date, as of the first time it
+		 * is asked for in this run
+		 */
+		long[] dateRange(String date, String predicate) {
+			return dateRanges.computeIfAbsent(predicate + ':' + date,
+					key -> DBFormat.dateRange(date, predicate));
+		}
+	}
+
+	/*
+	 * Combinations
+	 */
+
+	static final class And extends DBFilter {
+
+		private final List<DBFilter> filters;
+
+		And(List<DBFilter> filters) {
+			this.filters = filters;
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			for (DBFilter filter: filters) {
+				if(!filter.test(entry, context)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		int cost() {
+			int cost = COST_SCAN;
+			for (DBFilter filter: filters) {
+				cost = Math.min(cost, filter.cost());
+			}
+			return cost;
+		}
+
+		@Override
+		List<Pair<Person,Package>> candidates(DBMaps dbMaps, Context context) {
+			DBFilter cheapest = null;
+			for (DBFilter filter: filters) {
+				if(cheapest == null || filter.cost() < cheapest.cost()) {
+					cheapest = filter;
+				}
+			}
+			if(cheapest.cost() != COST_DATE) {
+				// null if no child has an index
+				return cheapest.candidates(dbMaps, context);
+			}
+
+			// narrow the date ranges of this And down together
+			long[] checkInRange = null;
+			long[] checkOutRange = null;
+			for (DBFilter filter: filters) {
+				if(filter instanceof DateRange) {
+					DateRange dateRange = (DateRange) filter;
+					if(dateRange.checkOut) {
+						checkOutRange = intersect(checkOutRange, dateRange.range(context));
+					} else {
+						checkInRange = intersect(checkInRange, dateRange.range(context));
+					}
+				}
+			}
+			if(checkInRange == null && checkOutRange == null) {
+				// the dates are inside a nested Or or And, which finds its own candidates
+				return cheapest.candidates(dbMaps, context);
+			} else if(dbMaps.hasPackageColumns()) {
+				// one pass over the columns applies both ranges together
+				return dbMaps.scanEntries(false, checkInRange, checkOutRange);
+			} else if(checkInRange != null) {
+				return dbMaps.getEntriesCheckedInBetween(checkInRange[0], checkInRange[1]);
+			}
+			return dbMaps.getEntriesCheckedOutBetween(checkOutRange[0], checkOutRange[1]);
+		}
+
+		private static long[] intersect(long[] range, long[] other) {
+			if(range == null) {
+				return other;
+			}
+			return new long[] {Math.max(range[0], other[0]), Math.min(range[1], other[1])};
+		}
+	}
+
+	static final class Or extends DBFilter {
+
+		private final List<DBFilter> filters;
+
+		Or(List<DBFilter> filters) {
+			this.filters = filters;
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			for (DBFilter filter: filters) {
+				if(filter.test(entry, context)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		int cost() {
+			int cost = 0;
+			for (DBFilter filter: filters) {
+				cost = Math.max(cost, filter.cost());
+			}
+			return cost;
+		}
+
+		@Override
+		List<Pair<Person,Package>> candidates(DBMaps dbMaps, Context context) {
+			if(cost() == COST_SCAN) {
+				// skip the index reads of the other children
+				return null;
+			}
+			// the children may find the same entry, keep it once
+			LongObjectMap<Pair<Person,Package>> union = new LongObjectMap<Pair<Person,Package>>();
+			ArrayList<Pair<Person,Package>> result = new ArrayList<Pair<Person,Package>>();
+			for (DBFilter filter: filters) {
+				List<Pair<Person,Package>> candidates = filter.candidates(dbMaps, context);
+				if(candidates == null) {
+					// an unindexed child can match any entry
+					return null;
+				}
+				for (Pair<Person,Package> entry: candidates) {
+					if(union.put(entry.second.getPackageID(), entry) == null) {
+						result.add(entry);
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	static final class Not extends DBFilter {
+
+		private final DBFilter filter;
+
+		Not(DBFilter filter) {
+			this.filter = filter;
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			return !filter.test(entry, context);
+		}
+	}
+
+	/*
+	 * Predicates
+	 */
+
+	/*
+	 * checked_in=true matches the packages that have not been checked out,
+	 * checked_in=false matches every package
+	 */
+	static final class CheckedIn extends DBFilter {
+
+		private final boolean checkedInOnly;
+
+		CheckedIn(boolean checkedInOnly) {
+			this.checkedInOnly = checkedInOnly;
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			return !checkedInOnly || entry.second.getCheckOutDate() == null;
+		}
+
+		@Override
+		int cost() {
+			return checkedInOnly ? COST_ACTIVE : COST_SCAN;
+		}
+
+		@Override
+		List<Pair<Person,Package>> candidates(DBMaps dbMaps, Context context) {
+			return checkedInOnly ? dbMaps.getActiveEntries() : null;
+		}
+	}
+
+	static final class PersonName extends DBFilter {
+
+		// lower case
+		private final String personName;
+
+		PersonName(String personName) {
+			this.personName = personName.toLowerCase();
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			Set<String> personIDs = context.searchPersons(personName);
+			if(personIDs != null) {
+				return personIDs.contains(entry.first.getPersonID());
+			}
+			Person person = entry.first;
+			return person.getFullName().toLowerCase().contains(personName) ||
+					person.getLastFirstName().toLowerCase().contains(personName) ||
+					String.valueOf(person.getPersonID()).toLowerCase().contains(personName);
+		}
+
+		@Override
+		int cost() {
+			return personName.length() >= MIN_INDEXED_NAME ? COST_PERSON : COST_SCAN;
+		}
+
+		@Override
+		List<Pair<Person,Package>> candidates(DBMaps dbMaps, Context context) {
+			if(personName.length() < MIN_INDEXED_NAME) {
+				return null;
+			}
+			return dbMaps.getOwnedEntries(context.searchPersons(personName));
+		}
+	}
+
+	static final class PersonID extends DBFilter {
+
+		private final String personID;
+
+		PersonID(String personID) {
+			this.personID = personID;
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			return personID.equals(entry.first.getPersonID());
+		}
+
+		@Override
+		int cost() {
+			return COST_PERSON;
+		}
+
+		@Override
+		List<Pair<Person,Package>> candidates(DBMaps dbMaps, Context context) {
+			return dbMaps.getOwnedEntries(Collections.singleton(personID));
+		}
+	}
+
+	/*
+	 * Range of package IDs, both ends inclusive
+	 */
+	static final class PackageID extends DBFilter {
+
+		private final long from;
+		private final long to;
+
+		PackageID(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			long pkgID = entry.second.getPackageID();
+			return pkgID >= from && pkgID <= to;
+		}
+
+		@Override
+		int cost() {
+			return from == to ? COST_PACKAGE : COST_SCAN;
+		}
+
+		@Override
+		List<Pair<Person,Package>> candidates(DBMaps dbMaps, Context context) {
+			if(from != to) {
+				return null;
+			}
+			Pair<Person,Package> entry = dbMaps.getEntry(from);
+			return entry == null ? Collections.<Pair<Person,Package>>emptyList() : Collections.singletonList(entry);
+		}
+	}
+
+	/*
+	 * Range of check in or check out epoch millis, from inclusive and to exclusive.
+	 * Relative dates such as -3d are resolved each run, since parsed filters are cached
+	 * for longer than a day.
+	 */
+	static final class DateRange extends DBFilter {
+
+		private final boolean checkOut;
+		private final String date;
+		private final String predicate;
+		// null if the date is relative
+		private final long[] fixedRange;
+
+		DateRange(boolean checkOut, String date, String predicate) {
+			this.checkOut = checkOut;
+			this.date = date.trim();
+			this.predicate = predicate;
+			this.fixedRange = DBFormat.isRelativeDate(this.date) ? null : DBFormat.dateRange(this.date, predicate);
+		}
+
+		long[] range(Context context) {
+			return fixedRange != null ? fixedRange : context.dateRange(date, predicate);
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			long[] range = range(context);
+			// the missing date values are outside every range a date string gives
+			long millis = checkOut ? entry.second.getCheckOutMillis() : entry.second.getCheckInMillis();
+			return millis != Long.MAX_VALUE && millis != Long.MIN_VALUE &&
+					millis >= range[0] && millis < range[1];
+		}
+
+		@Override
+		int cost() {
+			return COST_DATE;
+		}
+
+		@Override
+		List<Pair<Person,Package>> candidates(DBMaps dbMaps, Context context) {
+			long[] range = range(context);
+			return checkOut ? dbMaps.getEntriesCheckedOutBetween(range[0], range[1]) :
+					dbMaps.getEntriesCheckedInBetween(range[0], range[1]);
+		}
+	}
+
+	/*
+	 * Case insensitive comment search, for the whole comment or any part of it
+	 */
+	static final class Comment extends DBFilter {
+
+		// lower case
+		private final String comment;
+		private final boolean contains;
+
+		Comment(String comment, boolean contains) {
+			this.comment = comment.toLowerCase();
+			this.contains = contains;
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			String pkgComment = entry.second.getComment();
+			if(pkgComment == null) {
+				return comment.isEmpty();
+			}
+			pkgComment = pkgComment.toLowerCase();
+			return contains ? pkgComment.contains(comment) : pkgComment.equals(comment);
+		}
+	}
+
+	static final class NotificationSent extends DBFilter {
+
+		private final boolean notificationSent;
+
+		NotificationSent(boolean notificationSent) {
+			this.notificationSent = notificationSent;
+		}
+
+		@Override
+		public boolean test(Pair<Person,Package> entry, Context context) {
+			return entry.second.isNotificationSent() == notificationSent;
+		}
+	}
+}
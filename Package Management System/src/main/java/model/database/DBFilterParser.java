@@ -0,0 +1,216 @@
+package main.java.model.database;
+
+import java.util.ArrayList;
+
+/**
+ * Recursive descent parser for the filter language described in DBFormat.filter.
+ *
+ * Grammar, lowest precedence first:
+ * 		expression	= and { "|" and }
+ * 		and			= unary { ":" unary }
+ * 		unary		= "!" unary | "(" expression ")" | predicate
+ * 		predicate	= field ( "=" | "~" ) value
+ * 		value		= '"' any characters but '"' '"' | any characters but ":", "|" and ")"
+ *
+ * Whitespace around operators and unquoted values is ignored. Errors are reported as
+ * IllegalArgumentExceptions naming the position in the input.
+ */
+class DBFilterParser {
+
+	private final String input;
+	private int pos;
+
+	private DBFilterParser(String input) {
+		this.input = input;
+		this.pos = 0;
+	}
+
+	/**
+	 * Parses a filter string
+	 * @param filterString		String containing filters, as for DBFormat.filter
+	 * @return					Parsed filter, or null if the string is null or blank
+	 */
+	static DBFilter parse(String filterString) {
+		if(filterString == null || filterString.trim().isEmpty()) {
+			return null;
+		}
+		DBFilterParser parser = new DBFilterParser(filterString);
+		DBFilter filter = parser.parseExpression();
+		parser.skipWhitespace();
+		if(parser.pos < filterString.length()) {
+			throw parser.error("Unexpected '" + filterString.charAt(parser.pos) + "'");
+		}
+		return filter;
+	}
+
+	private DBFilter parseExpression() {
+		ArrayList<DBFilter> filters = new ArrayList<DBFilter>();
+		filters.add(parseAnd());
+		while(accept('|')) {
+			filters.add(parseAnd());
+		}
+		return filters.size() == 1 ? filters.get(0) : new DBFilter.Or(filters);
+	}
+
+	private DBFilter parseAnd() {
+		ArrayList<DBFilter> filters = new ArrayList<DBFilter>();
+		filters.add(parseUnary());
+		while(accept(':')) {
+			filters.add(parseUnary());
+		}
+		return filters.size() == 1 ? filters.get(0) : new DBFilter.And(filters);
+	}
+
+	private DBFilter parseUnary() {
+		if(accept('!')) {
+			return new DBFilter.Not(parseUnary());
+		}
+		if(accept('(')) {
+			DBFilter filter = parseExpression();
+			if(!accept(')')) {
+				throw error("Expected ')'");
+			}
+			return filter;
+		}
+		return parsePredicate();
+	}
+
+	private DBFilter parsePredicate() {
+		skipWhitespace();
+		int start = pos;
+		while(pos < input.length() && (Character.isLetterOrDigit(input.charAt(pos)) || input.charAt(pos) == '_')) {
+			pos++;
+		}
+		if(pos == start) {
+			throw error(pos < input.length() ? "Expected a field name but found '" + input.charAt(pos) + "'" :
+					"Expected a field name");
+		}
+		String field = input.substring(start, pos).toLowerCase();
+		skipWhitespace();
+		if(pos == input.length() || (input.charAt(pos) != '=' && input.charAt(pos) != '~')) {
+			throw error("Expected '=' or '~' after field '" + field + "'");
+		}
+		boolean contains = input.charAt(pos++) == '~';
+		int valuePos = pos;
+		String value = parseValue();
+
+		switch (field) {
+		case "checked_in":
+			return new DBFilter.CheckedIn(parseBoolean(field, value, contains, valuePos));
+		case "notification_sent":
+			return new DBFilter.NotificationSent(parseBoolean(field, value, contains, valuePos));
+		case "person_name":
+			// person_name has always searched within the names
+			return new DBFilter.PersonName(value);
+		case "person_id":
+			requireEquals(field, contains, valuePos);
+			return new DBFilter.PersonID(value);
+		case "package_id":
+			requireEquals(field, contains, valuePos);
+			return parsePackageIDs(value, valuePos);
+		case "comment":
+			return new DBFilter.Comment(value, contains);
+		case "on_date":
+		case "before_date":
+		case "after_date":
+		case "out_on_date":
+		case "out_before_date":
+		case "out_after_date":
+			requireEquals(field, contains, valuePos);
+			boolean checkOut = field.startsWith("out_");
+			String predicate = field.substring(checkOut ? "out_".length() : 0, field.length() - "_date".length());
+			try {
+				// resolves the date once to check it, relative dates are resolved again each run
+				DBFormat.dateRange(value, predicate);
+				return new DBFilter.DateRange(checkOut, value, predicate);
+			} catch (IllegalArgumentException e) {
+				throw error(e.getMessage(), valuePos);
+			}
+		default:
+			throw error("Unknown field '" + field + "'", start);
+		}
+	}
+
+	/*
+	 * Reads a quoted value, or an unquoted value up to the next operator
+	 */
+	private String parseValue() {
+		skipWhitespace();
+		if(pos < input.length() && input.charAt(pos) == '"') {
+			int end = input.indexOf('"', pos + 1);
+			if(end < 0) {
+				throw error("Unterminated quote");
+			}
+			String value = input.substring(pos + 1, end);
+			pos = end + 1;
+			return value;
+		}
+		int start = pos;
+		while(pos < input.length() && ":|)".indexOf(input.charAt(pos)) < 0) {
+			pos++;
+		}
+		return input.substring(start, pos).trim();
+	}
+
+	/*
+	 * Parses a package ID, or a range of them as from..to with both ends inclusive
+	 * and either end left out for no limit
+	 */
+	private DBFilter parsePackageIDs(String value, int valuePos) {
+		try {
+			int dots = value.indexOf("..");
+			if(dots < 0) {
+				long pkgID = Long.parseLong(value);
+				return new DBFilter.PackageID(pkgID, pkgID);
+			}
+			String from = value.substring(0, dots).trim();
+			String to = value.substring(dots + 2).trim();
+			return new DBFilter.PackageID(from.isEmpty() ? Long.MIN_VALUE : Long.parseLong(from),
+					to.isEmpty() ? Long.MAX_VALUE : Long.parseLong(to));
+		} catch (NumberFormatException e) {
+			throw error("Invalid package ID '" + value + "', expected a number or a range from..to", valuePos);
+		}
+	}
+
+	private boolean parseBoolean(String field, String value, boolean contains, int valuePos) {
+		requireEquals(field, contains, valuePos);
+		if(value.equalsIgnoreCase("true")) {
+			return true;
+		} else if(value.equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw error("Invalid value '" + value + "' for field '" + field + "', expected true or false", valuePos);
+	}
+
+	private void requireEquals(String field, boolean contains, int valuePos) {
+		if(contains) {
+			throw error("Field '" + field + "' does not support '~', use '='", valuePos - 1);
+		}
+	}
+
+	/*
+	 * Consumes the given operator if it is next
+	 */
+	private boolean accept(char operator) {
+		skipWhitespace();
+		if(pos < input.length() && input.charAt(pos) == operator) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private void skipWhitespace() {
+		while(pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return error(message, pos);
+	}
+
+	private IllegalArgumentException error(String message, int position) {
+		return new IllegalArgumentException(message + " at position " + position + " of filter \"" + input + "\"");
+	}
+}
@@ -1,11 +1,13 @@
 package main.java.model.database;
 
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.Iterator;
 
 import main.java.util.Pair;
 
@@ -21,144 +23,95 @@ public class DBFormat {
 	/**
 	 * Filter function that calls all of the other filter functions
 	 * 
-	 * filterString should be written with all filters in the format
-	 * 		field1=value1:field2=value2:field3=value3
-	 * etc., where fields and values are defined as follows
+	 * filterString is an expression of filters in the format field=value,
+	 * combined with the operators, from lowest to highest precedence
+	 * 		a|b					Either a or b
+	 * 		a:b					Both a and b
+	 * 		!a					Not a
+	 * 		(a)					Grouping
+	 * so that field1=value1:field2=value2:field3=value3 keeps all three filters.
+	 * Values containing :, | or ) can be quoted as "value". Fields and values
+	 * are defined as follows
 	 * 	Fields with accompanying values:
 	 * 		checked_in			
-	 * 			<boolean>		Include only packages that have not been checked out
+	 * 			<boolean>		Include only packages that have not been checked out,
+	 * 							false includes every package
 	 * 		person_name
-	 * 			<String>		User input string to search Person firstName and LastName		
+	 * 			<String>		User input string to search Person firstName, LastName and personID		
+	 * 		person_id
+	 * 			<String>		Exact personID of the owner
+	 * 		package_id
+	 * 			<long>			Package ID, or range from..to of package IDs with both ends
+	 * 							inclusive and either end left out for no limit
+	 * 		comment
+	 * 			<String>		Whole comment, ignoring case. comment~value matches comments
+	 * 							containing the value
+	 * 		notification_sent
+	 * 			<boolean>		Whether the notification email has been sent
 	 * 		on_date
 	 * 			<String>		YYYYMMDD Date to get entries checked-in on
 	 *		before_date			
 	 * 			<String>		YYYYMMDD Date to get entries checked-in before
 	 * 		after_date
 	 * 			<String>		YYYYMMDD Date get entries checked-in after
-	 * 			
-	 * 		
+	 * 		out_on_date
+	 * 			<String>		YYYYMMDD Date to get entries checked-out on
+	 * 		out_before_date
+	 * 			<String>		YYYYMMDD Date to get entries checked-out before
+	 * 		out_after_date
+	 * 			<String>		YYYYMMDD Date to get entries checked-out after
+	 * 	Dates can also be given as today, or relative to today as -<n>d or -<n>w for n
+	 * 	days or weeks ago, so packages that have waited more than three days without a
+	 * 	notification are
+	 * 		checked_in=true:notification_sent=false:before_date=-3d
 	 * 
 	 * @param dbEntries			Database ArrayList<Pair<Person,Package>> entries
-	 * @param filterString		String containing filters to be applied, in order
+	 * @param filterString		String containing filters to be applied
 	 * @return					Filtered ArrayList<Pair<Person,Package>> entries
+	 * @throws IllegalArgumentException if the filter string is not valid
 	 */
 	public static void filter(
 			ArrayList<Pair<Person,Package>> dbEntries,
 			String filterString) {
-		
-		//Do nothing if filterString is empty
-		if(filterString == null || filterString.isEmpty()) {
-			return;
-		}
-		
-		// parse the string for options
-		ArrayList<Pair<String,String>> filtOpts = parseLang(filterString);
-		for (Pair<String,String> opt: filtOpts) {
-			switch (opt.first.toUpperCase()) {
-			case "CHECKED_IN":
-				filterCheckedIn(dbEntries,Boolean.valueOf(opt.second));
-				break;
-			case "PERSON_NAME":
-				filterPersonName(dbEntries,opt.second);
-				break;
-			case "BEFORE_DATE":
-				filterDate(dbEntries,opt.second,"before");
-				break;
-			case "ON_DATE":
-				filterDate(dbEntries,opt.second,"on");
-				break;
-			case "AFTER_DATE":
-				filterDate(dbEntries,opt.second,"after");
-				break;
-			}
-		}
+		filter(dbEntries, filterString, null);
 	}
 	
 	/**
-	 * Function that returns all packages that have not been checked out
+	 * Filter function as above, using the name index of the maps for person_name filters
 	 * @param dbEntries			Database ArrayList<Pair<Person,Package>> entries
-	 * @return					Checked in ArrayList<Pair<Person,Package>> entries
-	 */
-	private static void filterCheckedIn(
-			ArrayList<Pair<Person,Package>> dbEntries,
-			boolean doFilter) {
-		
-		if(doFilter) {
-			Iterator<Pair<Person, Package>> entryIt = dbEntries.iterator();
-			
-			// Iterate through entries, removing them if they have been checked out
-			while(entryIt.hasNext()) {
-				Pair<Person,Package> entry = entryIt.next();
-				if(entry.second.getCheckOutDate() != null) {
-					entryIt.remove();
-				}
-			}
-		}
-	}
-	
-	/**
-	 * Function that returns all packages owned by persons matching searchString
-	 * @param dbEntries			Database ArrayList<Pair<Person,Package>> entries
-	 * @param personIDs			Array of personIDs to search for
-	 * @return					Owned ArrayList<Pair<Person,Package>> entries
+	 * @param filterString		String containing filters to be applied, in order
+	 * @param dbMaps			Maps holding the entries, or null to scan the names
 	 */
-	private static void filterPersonName(
+	public static void filter(
 			ArrayList<Pair<Person,Package>> dbEntries,
-			String searchString) {
-		
-		// make the string lower case for case insensitivity
-		searchString = searchString.toLowerCase();
+			String filterString,
+			DBMaps dbMaps) {
 		
-		// Iterate through all entries and remove non-matching entries
-		Iterator<Pair<Person,Package>> entryIt = dbEntries.iterator();
-		while(entryIt.hasNext()) {
-			Pair<Person,Package> entry = entryIt.next();
-			String fullName = entry.first.getFullName().toLowerCase();
-			String lastFirst = entry.first.getLastFirstName().toLowerCase();
-			
-			// remove if neither name contains the search string
-			if (!(fullName.contains(searchString) || lastFirst.contains(searchString))) {
-				entryIt.remove();
-			}
+		//Do nothing if filterString is empty
+		if(filterString == null || filterString.isEmpty()) {
+			return;
 		}
 		
-		
-		// check forward and reverse
+		// compile the filters into a single pass over the entries
+		DBQuery.compile(filterString, null).filter(dbEntries, dbMaps);
 	}
 	
-	/**
-	 * Function that returns all packages with specified check-in dates
-	 * @param dbEntries			Database ArrayList<Pair<Person,Package>> entries
-	 * @param date				(YYYYMMDD) date to search around
-	 * @param predicate			"on," "before," or "after" specific date
-	 * @return					Matching ArrayList<Pair<Person,Package>> entries
+	/*
+	 * Returns the range of epoch millis {from, to} that is on, before or after a
+	 * date in the local time zone, given as YYYYMMDD, today, -<n>d or -<n>w
 	 */
-	
-	private static void filterDate(
-			ArrayList<Pair<Person,Package>> dbEntries,
-			String date, 
-			String predicate) {
-		
-		// Iterate through entries and remove if in the wrong category
-		int setCalendarDate = Integer.valueOf(date);
-		Iterator<Pair<Person,Package>> entryIt = dbEntries.iterator();
-		SimpleDateFormat ft = new SimpleDateFormat("YYYYMMdd");
-		while(entryIt.hasNext()) {
-			Pair<Person,Package> entry = entryIt.next();
-			int checkInCalendarDate = Integer.valueOf(ft.format(entry.second.getCheckInDate()));
-			switch (predicate.toLowerCase()) {
-			case "on":
-				if(checkInCalendarDate != setCalendarDate) {entryIt.remove();}
-				break;
-			case "before":
-				if(checkInCalendarDate >= setCalendarDate) {entryIt.remove();}
-				break;
-			case "after":
-				if(checkInCalendarDate <= setCalendarDate) {entryIt.remove();}
-				break;
-			}
+	static long[] dateRange(String date, String predicate) {
+		LocalDate day = parseDay(date.trim());
+		long dayStart = day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		long nextDayStart = day.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		switch (predicate.toLowerCase()) {
+		case "on":
+			return new long[] {dayStart, nextDayStart};
+		case "before":
+			return new long[] {Long.MIN_VALUE, dayStart};
+		default:
+			return new long[] {nextDayStart, Long.MAX_VALUE};
 		}
-		
 	}
 	
 	/**
@@ -193,6 +146,16 @@ public class DBFormat {
 			return;
 		}
 		
+		Collections.sort(dbEntries,getComparator(sortString));
+		
+	}
+	
+	/**
+	 * Compiles a sort string, as for sort, into a single comparator
+	 * @param sortString		String containing sorts in priority order
+	 * @return					Comparator applying the sorts
+	 */
+	static Comparator<Pair<Person,Package>> getComparator(String sortString) {
 		// Parse options
 		ArrayList<Pair<String,String>> options = parseLang(sortString);
 		
@@ -204,8 +167,7 @@ public class DBFormat {
 					SortType.valueOf(opt.second.toUpperCase())));
 		}
 		
-		Collections.sort(dbEntries,DBComparator.getComparator(sortOpts));
-		
+		return DBComparator.getComparator(sortOpts);
 	}
 	
 	private enum SortType {
@@ -216,48 +178,44 @@ public class DBFormat {
 		LAST_NAME {
 			public int compare(Pair<Person,Package> entry1, 
 					Pair<Person,Package> entry2) {
-				return entry1.first.getLastName().toLowerCase().compareTo(
-						entry2.first.getLastName().toLowerCase());
+				return entry1.first.getLastNameKey().compareTo(
+						entry2.first.getLastNameKey());
 			}
 		},
 		FIRST_NAME {
 			public int compare(Pair<Person,Package> entry1, 
 					Pair<Person,Package> entry2) {
-				return entry1.first.getFirstName().toLowerCase().compareTo(
-						entry2.first.getFirstName().toLowerCase());
+				return entry1.first.getFirstNameKey().compareTo(
+						entry2.first.getFirstNameKey());
 			}
 		},
 		PERSON_ID {
 			public int compare(Pair<Person,Package> entry1, 
 					Pair<Person,Package> entry2) {
-				return entry1.first.getPersonID().toLowerCase().compareTo(
-						entry2.first.getPersonID().toLowerCase());
+				return entry1.first.getPersonIDKey().compareTo(
+						entry2.first.getPersonIDKey());
 			}
 		},
 		PACKAGE_ID {
 			public int compare(Pair<Person,Package> entry1, 
 					Pair<Person,Package> entry2) {
-				return Long.valueOf(entry1.second.getPackageID()).compareTo(
-						Long.valueOf(entry2.second.getPackageID()));
+				return Long.compare(entry1.second.getPackageID(),
+						entry2.second.getPackageID());
 			}
 		},
 		CHECK_IN_DATE {
 			public int compare(Pair<Person,Package> entry1,
 					Pair<Person,Package> entry2) {
-				return entry1.second.getCheckInDate().compareTo(
-						entry2.second.getCheckInDate());
+				return Long.compare(entry1.second.getCheckInMillis(),
+						entry2.second.getCheckInMillis());
 			}
 		},
 		CHECK_OUT_DATE {
 			public int compare(Pair<Person,Package> entry1,
 					Pair<Person,Package> entry2) {
-				//special cases for null
-				Date e1CODate = entry1.second.getCheckOutDate();
-				Date e2CODate = entry2.second.getCheckOutDate();
-				if(e1CODate == null && e2CODate == null) {return 0;} 
-				else if(e1CODate == null) {return 1;} 
-				else if(e2CODate == null) {return -1;}
-				else {return e1CODate.compareTo(e2CODate);}
+				// packages that have not been checked out have the largest millis, so sort last
+				return Long.compare(entry1.second.getCheckOutMillis(),
+						entry2.second.getCheckOutMillis());
 			}
 		};
 		
@@ -286,17 +244,45 @@ public class DBFormat {
 		
 	}
 	
+	/*
+	 * Returns whether a date string is relative to today, so its range changes daily
+	 */
+	static boolean isRelativeDate(String date) {
+		return date.equalsIgnoreCase("today") || date.startsWith("-");
+	}
+	
+	private static LocalDate parseDay(String date) {
+		try {
+			if(date.equalsIgnoreCase("today")) {
+				return LocalDate.now();
+			} else if(date.startsWith("-") && (date.endsWith("d") || date.endsWith("w"))) {
+				long amount = Long.parseLong(date.substring(1, date.length() - 1));
+				return date.endsWith("d") ? LocalDate.now().minusDays(amount) : LocalDate.now().minusWeeks(amount);
+			}
+			return LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE);
+		} catch (NumberFormatException | DateTimeParseException e) {
+			throw new IllegalArgumentException("Invalid date '" + date +
+					"', expected YYYYMMDD, today, -<n>d or -<n>w");
+		}
+	}
+	
 	/**
-	 * Parser for the simple filter and sorter language described in each public function
+	 * Parser for the simple sorter language described in sort, filters are parsed
+	 * by DBFilterParser
 	 * @param input			The input string to be parsed
 	 * @return
+	 * @throws IllegalArgumentException if a field has no value
 	 */
-	private static ArrayList<Pair<String,String>> parseLang(String input) {
+	static ArrayList<Pair<String,String>> parseLang(String input) {
 		String[] fieldsAndValues = input.split(":");
 		ArrayList<Pair<String,String>> result = new ArrayList<Pair<String,String>>();
 		
 		for (String fvString: fieldsAndValues) {
 			String[] fv = fvString.split("=", 2);
+			if(fv.length < 2) {
+				throw new IllegalArgumentException("Expected field=value but found '" + fvString +
+						"' in \"" + input + "\"");
+			}
 			result.add(new Pair<String,String>(fv[0],fv[1]));
 		}
 		
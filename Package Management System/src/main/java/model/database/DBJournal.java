@@ -0,0 +1,384 @@
+package main.java.model.database;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.logging.Logger;
+
+import main.java.util.Package;
+import main.java.util.Person;
+
+/**
+ * Append-only journal of database mutations. Each check in, check out, notification,
+ * package edit and person edit is appended as a small length-prefixed record instead of rewriting
+ * the owner's whole person file. The person files are brought up to date during
+ * compaction, after which the journal is truncated.
+ *
+ * Records are idempotent, so replaying a journal over person files that already
+ * contain some of its changes is safe. A record that was only partially written
+ * (e.g. power loss mid-append) is cut off the end of the journal during replay, so
+ * that later records are not appended after it.
+ */
+public class DBJournal {
+
+	private static final byte CHECK_IN = 1;
+	private static final byte CHECK_OUT = 2;
+	private static final byte EDIT_PACKAGE = 3;
+	private static final byte EDIT_PERSON = 4;
+	private static final byte NOTIFICATION_SENT = 5;
+
+	private String filePath;
+	private FileOutputStream outFile;
+	private DataOutputStream outStream;
+	private int recordCount;
+	
+	private DBDurability durability;
+	// whether records have been appended since the journal was last forced to disk
+	private boolean unsynced;
+
+	private Logger logger;
+
+	public DBJournal(String filePath) {
+		this.filePath = filePath;
+		this.recordCount = 0;
+		this.durability = DBDurability.GROUP;
+		this.logger = Logger.getLogger(DBJournal.class.getName());
+	}
+
+	/**
+	 * Sets when appended records are forced to disk. With FSYNC every append is forced,
+	 * with GROUP records are forced by calls to sync, and with BUFFERED never.
+	 * @param durability		Durability policy
+	 */
+	public void setDurability(DBDurability durability) {
+		this.durability = durability;
+	}
+
+	/**
+	 * Opens the journal for appending, creating it if it does not exist
+	 * @throws IOException
+	 */
+	public synchronized void open() throws IOException {
+		outFile = new FileOutputStream(filePath, true);
+		outStream = new DataOutputStream(new BufferedOutputStream(outFile));
+	}
+
+	/**
+	 * Forces any records appended since the last sync to disk, used for group commit
+	 */
+	public synchronized void sync() {
+		if(outStream == null || !unsynced) {
+			return;
+		}
+		try {
+			outFile.getChannel().force(false);
+			unsynced = false;
+		} catch (IOException e) {
+			logger.warning("Failed to sync journal " + filePath);
+		}
+	}
+
+	/**
+	 * Closes the journal file
+	 */
+	public synchronized void close() {
+		if(outStream == null) {
+			return;
+		}
+		try {
+			outStream.flush();
+			if(durability != DBDurability.BUFFERED) {
+				outFile.getChannel().force(false);
+			}
+			outStream.close();
+		} catch (IOException e) {
+			logger.warning("Failed to close journal " + filePath);
+		}
+		outStream = null;
+	}
+
+	/*
+	 * Mutation records
+	 */
+
+	/**
+	 * Records a package checked in for a person
+	 * @param personID			ID of the owner
+	 * @param pkg				Package that was checked in
+	 * @return					Success of writing the record
+	 */
+	public boolean logCheckIn(String personID, Package pkg) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			record.writeByte(CHECK_IN);
+			DBCodec.writeString(record, personID);
+			DBCodec.writePackage(record, pkg);
+			return append(bytes.toByteArray());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records a package being checked out
+	 * @param pkgID				ID of the package checked out
+	 * @param checkOutDate		Date the package was checked out
+	 * @return					Success of writing the record
+	 */
+	public boolean logCheckOut(long pkgID, Date checkOutDate) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			record.writeByte(CHECK_OUT);
+			DBCodec.writeVarLong(record, pkgID);
+			DBCodec.writeVarLong(record, checkOutDate.getTime());
+			return append(bytes.toByteArray());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records the notification email of a package being sent
+	 * @param pkgID				ID of the package
+	 * @return					Success of writing the record
+	 */
+	public boolean logNotificationSent(long pkgID) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			record.writeByte(NOTIFICATION_SENT);
+			DBCodec.writeVarLong(record, pkgID);
+			return append(bytes.toByteArray());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records the new attributes of an edited package
+	 * @param pkg				Package containing the new attributes
+	 * @return					Success of writing the record
+	 */
+	public boolean logEditPackage(Package pkg) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			record.writeByte(EDIT_PACKAGE);
+			DBCodec.writePackage(record, pkg);
+			return append(bytes.toByteArray());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records the new attributes of an edited person
+	 * @param person			Person containing the new attributes
+	 * @return					Success of writing the record
+	 */
+	public boolean logEditPerson(Person person) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			record.writeByte(EDIT_PERSON);
+			DBCodec.writePerson(record, person);
+			return append(bytes.toByteArray());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Applies every complete record in the journal file to dbMaps. Records for persons
+	 * or packages that are no longer in dbMaps are skipped. A partially written final
+	 * record is truncated away.
+	 *
+	 * @param dbMaps			Maps to apply the journaled mutations to
+	 * @return					IDs of all persons whose data was touched by the journal
+	 */
+	public HashSet<String> replay(DBMaps dbMaps) {
+		HashSet<String> touched = new HashSet<String>();
+		File file = new File(filePath);
+		if(!file.exists()) {
+			return touched;
+		}
+
+		int replayed = 0;
+		// end of the last complete record
+		long validLength = 0;
+		boolean torn = false;
+		DataInputStream inStream = null;
+		try {
+			inStream = new DataInputStream(new FileInputStream(file));
+			while(true) {
+				byte[] recordBytes;
+				try {
+					int length = inStream.readInt();
+					if(length < 0 || length > file.length() - validLength - Integer.BYTES) {
+						// a length that runs past the end of the file, as torn as a short record
+						throw new EOFException();
+					}
+					recordBytes = new byte[length];
+					inStream.readFully(recordBytes);
+				} catch (EOFException e) {
+					// end of journal, or a partially written final record
+					torn = validLength < file.length();
+					break;
+				}
+				validLength += Integer.BYTES + recordBytes.length;
+
+				String personID = applyRecord(dbMaps,
+						new DataInputStream(new ByteArrayInputStream(recordBytes)));
+				if(personID != null) {
+					touched.add(personID);
+				}
+				replayed++;
+			}
+		} catch (IOException e) {
+			logger.warning("Failed to read journal " + filePath + " after " + replayed + " records");
+		} finally {
+			if(inStream != null) {
+				try {
+					inStream.close();
+				} catch (IOException e) {
+					logger.warning("Failed to close journal " + filePath);
+				}
+			}
+		}
+
+		if(torn) {
+			truncateTo(validLength);
+		}
+		recordCount = replayed;
+		logger.info("Replayed " + replayed + " journal records");
+		return touched;
+	}
+
+	/**
+	 * Empties the journal. Must only be called once every person touched by the journal
+	 * has had their file rewritten.
+	 * @throws IOException
+	 */
+	public synchronized void truncate() throws IOException {
+		close();
+		new FileOutputStream(filePath, false).close();
+		recordCount = 0;
+		open();
+	}
+
+	/**
+	 * Returns the number of records written since the journal was last truncated
+	 * @return					Number of records in the journal
+	 */
+	public synchronized int getRecordCount() {
+		return recordCount;
+	}
+
+	/*
+	 * Cuts a partially written record off the end of the journal file
+	 */
+	private void truncateTo(long length) {
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
+			logger.warning("Dropping " + (file.length() - length) + " bytes of a partial record from journal " +
+					filePath);
+			file.getChannel().truncate(length);
+			file.getChannel().force(false);
+		} catch (IOException e) {
+			logger.warning("Failed to truncate journal " + filePath);
+		}
+	}
+
+	/*
+	 * Writes a single length-prefixed record to the end of the journal
+	 */
+	private synchronized boolean append(byte[] record) {
+		if(outStream == null) {
+			return false;
+		}
+		try {
+			outStream.writeInt(record.length);
+			outStream.write(record);
+			outStream.flush();
+			if(durability == DBDurability.FSYNC) {
+				outFile.getChannel().force(false);
+			} else {
+				unsynced = true;
+			}
+			recordCount++;
+			return true;
+		} catch (IOException e) {
+			logger.warning("Failed to append to journal " + filePath);
+			return false;
+		}
+	}
+
+	/*
+	 * Applies one record to dbMaps, returning the ID of the person it touched,
+	 * or null if the record no longer applies
+	 */
+	private String applyRecord(DBMaps dbMaps, DataInputStream record) throws IOException {
+		byte type = record.readByte();
+		switch (type) {
+		case CHECK_IN: {
+			String personID = DBCodec.readString(record);
+			Package pkg = DBCodec.readPackage(record);
+			if(dbMaps.getPerson(personID) == null) {
+				return null;
+			}
+			if(dbMaps.getPackage(pkg.getPackageID()) == null) {
+				dbMaps.addPackage(personID, pkg);
+			} else {
+				dbMaps.editPackage(pkg);
+			}
+			return personID;
+		}
+		case CHECK_OUT: {
+			long pkgID = DBCodec.readVarLong(record);
+			Date checkOutDate = new Date(DBCodec.readVarLong(record));
+			if(dbMaps.getPackage(pkgID) == null) {
+				return null;
+			}
+			dbMaps.checkOutPackage(pkgID, checkOutDate);
+			return dbMaps.getOwnerID(pkgID);
+		}
+		case EDIT_PACKAGE: {
+			Package pkg = DBCodec.readPackage(record);
+			if(dbMaps.getPackage(pkg.getPackageID()) == null) {
+				return null;
+			}
+			dbMaps.editPackage(pkg);
+			return dbMaps.getOwnerID(pkg.getPackageID());
+		}
+		case EDIT_PERSON: {
+			Person person = DBCodec.readPerson(record);
+			if(dbMaps.getPerson(person.getPersonID()) == null) {
+				return null;
+			}
+			dbMaps.editPerson(person);
+			return person.getPersonID();
+		}
+		case NOTIFICATION_SENT: {
+			long pkgID = DBCodec.readVarLong(record);
+			if(dbMaps.getPackage(pkgID) == null) {
+				return null;
+			}
+			dbMaps.setNotificationSent(pkgID);
+			return dbMaps.getOwnerID(pkgID);
+		}
+		default:
+			throw new IOException("Unknown journal record type " + type);
+		}
+	}
+}
@@ -1,10 +1,20 @@
 package main.java.model.database;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
+import main.java.util.LongList;
+import main.java.util.LongObjectMap;
 import main.java.util.Package;
 import main.java.util.Pair;
 import main.java.util.Person;
@@ -12,22 +22,64 @@ import main.java.util.Person;
 /*
  * Class containing a map that handles the storage of the person and package relationships 
  * for use by the database class only.
+ * 
+ * Safe for use by multiple threads.
  */
 
 public class DBMaps {
 	
-	private HashMap<String, ArrayList<Long>> personID2PackageIDs;
-	private HashMap<Long, String> packageID2PersonID;
+	// package IDs are kept as primitives so that lookups and lists do not box them
+	private HashMap<String,LongList> personID2PackageIDs;
+	private LongObjectMap<String> packageID2PersonID;
 	private HashMap<String,Person> personIDMap;
-	private HashMap<Long,Package> packageIDMap;
+	private LongObjectMap<Package> packageIDMap;
+	// packages that have not been checked out, so waiting packages are found without
+	// going through the whole history
+	private LongObjectMap<Package> activePackageMap;
+	// package IDs by check in and check out time in epoch millis, for date range queries
+	private TreeMap<Long,LongList> checkInIndex;
+	private TreeMap<Long,LongList> checkOutIndex;
+	// trigram index of person names and IDs for substring searches
+	private DBNameIndex nameIndex;
+	// optional column store of the packages for history scans, null if not in use
+	private DBPackageColumns packageColumns;
+	// counts kept up to date with every change, for dashboards and reminders
+	private DBAggregates aggregates;
+	
+	// writers take the write lock, bulk reads the read lock and single lookups read
+	// optimistically. Not reentrant, so locked methods only call the unlocked helpers.
+	private final StampedLock lock = new StampedLock();
+	
+	// stored persons and packages are replaced rather than modified, so that
+	// snapshots can share them. The version changes with every write.
+	private long version;
+	// every entry, kept up to date with each write so snapshots do not rebuild it
+	private DBEntryList entries;
+	private volatile DBSnapshot snapshot;
 	
 	Logger logger;
 	
 	public DBMaps() {
-		this.personID2PackageIDs = new HashMap<String, ArrayList<Long>>();
-		this.packageID2PersonID = new HashMap<Long, String>();
+		this(false);
+	}
+	
+	/**
+	 * @param packageColumns	Whether to also keep the packages in columns, for scanEntries
+	 */
+	public DBMaps(boolean packageColumns) {
+		this.personID2PackageIDs = new HashMap<String,LongList>();
+		this.packageID2PersonID = new LongObjectMap<String>();
 		this.personIDMap = new HashMap<String,Person>();
-		this.packageIDMap = new HashMap<Long,Package>();
+		this.packageIDMap = new LongObjectMap<Package>();
+		this.activePackageMap = new LongObjectMap<Package>();
+		this.checkInIndex = new TreeMap<Long,LongList>();
+		this.checkOutIndex = new TreeMap<Long,LongList>();
+		this.nameIndex = new DBNameIndex();
+		this.aggregates = new DBAggregates();
+		this.entries = new DBEntryList();
+		if(packageColumns) {
+			this.packageColumns = new DBPackageColumns();
+		}
 		
 		this.logger = Logger.getLogger(DBMaps.class.getName());
 	}
@@ -39,24 +91,35 @@ public class DBMaps {
 	 * @param pkg				Package object to add
 	 */
 	public void addPackage(String personID, Package pkg) {
+		long stamp = writeLock();
+		try {
 		
-		long pkgID = pkg.getPackageID();
-		// If package is already in database, log the event
-		if(packageIDMap.containsKey(pkgID)) {
-			logger.warning("Package (ID: " + pkgID + ") to be added is already in the database.");
-			return;
-			//throw new DatabaseException("Package (ID: " + pkgID + ") to be added is already in the database.");
-		} 
+			long pkgID = pkg.getPackageID();
+			// If package is already in database, log the event
+			if(packageIDMap.containsKey(pkgID)) {
+				logger.warning("Package (ID: " + pkgID + ") to be added is already in the database.");
+				return;
+				//throw new DatabaseException("Package (ID: " + pkgID + ") to be added is already in the database.");
+			} 
 
-		// add to personID2PackageID
-		// retrieve list of packageIDs
-		ArrayList<Long> pkgIDList = personID2PackageIDs.get(personID);
-		// add new package ID to list of person's packageIDs
-		pkgIDList.add(pkgID);
+			// add to personID2PackageID
+			// retrieve list of packageIDs
+			LongList pkgIDList = personID2PackageIDs.get(personID);
+			// add new package ID to list of person's packageIDs
+			pkgIDList.add(pkgID);
 		
-		// add package to other maps
-		packageID2PersonID.put(pkgID, personID);
-		packageIDMap.put(pkgID, pkg);
+			// add package to other maps
+			packageID2PersonID.put(pkgID, personID);
+			packageIDMap.put(pkgID, pkg);
+			updateActive(pkg);
+			updateEntry(personID, pkg);
+			updateColumns(personID, pkg);
+			aggregates.add(personID, pkg);
+			indexDate(checkInIndex, pkg.getCheckInDate(), pkgID);
+			indexDate(checkOutIndex, pkg.getCheckOutDate(), pkgID);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
@@ -65,16 +128,91 @@ public class DBMaps {
 	 * @param newPackage		new package to replace the old package
 	 */
 	public void editPackage(Package newPackage) {
-		long pkgID = newPackage.getPackageID();
+		long stamp = writeLock();
+		try {
+			long pkgID = newPackage.getPackageID();
 		
-		//If package is not in database, log the event
-		if (!packageIDMap.containsKey(pkgID)) {
-			logger.warning("Package (ID: " + pkgID + ") to be edited not found in database.");
-			return;
-		}
+			//If package is not in database, log the event
+			if (!packageIDMap.containsKey(pkgID)) {
+				logger.warning("Package (ID: " + pkgID + ") to be edited not found in database.");
+				return;
+			}
 
-		//edit the packageIDMap only
-		packageIDMap.put(pkgID, newPackage);
+			//edit the packageIDMap, the active packages and the date indexes
+			String personID = packageID2PersonID.get(pkgID);
+			Package oldPackage = packageIDMap.put(pkgID, newPackage);
+			updateActive(newPackage);
+			updateEntry(personID, newPackage);
+			updateColumns(personID, newPackage);
+			aggregates.remove(personID, oldPackage);
+			aggregates.add(personID, newPackage);
+			unindexDate(checkInIndex, oldPackage.getCheckInDate(), pkgID);
+			unindexDate(checkOutIndex, oldPackage.getCheckOutDate(), pkgID);
+			indexDate(checkInIndex, newPackage.getCheckInDate(), pkgID);
+			indexDate(checkOutIndex, newPackage.getCheckOutDate(), pkgID);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Sets the check out date of a package, removing it from the active packages
+	 * @param pkgID				ID of package to be checked out
+	 * @param checkOutDate		Date the package was checked out
+	 */
+	public void checkOutPackage(long pkgID, Date checkOutDate) {
+		long stamp = writeLock();
+		try {
+			Package pkg = packageIDMap.get(pkgID);
+		
+			//If package is not in database, log the event
+			if (pkg == null) {
+				logger.warning("Package (ID: " + pkgID + ") to be checked out not found in database.");
+				return;
+			}
+		
+			// replace the package, snapshots may still hold the old one
+			Package checkedOut = new Package(pkg);
+			checkedOut.setCheckOutDate(checkOutDate);
+			String personID = packageID2PersonID.get(pkgID);
+			packageIDMap.put(pkgID, checkedOut);
+			activePackageMap.remove(pkgID);
+			updateEntry(personID, checkedOut);
+			updateColumns(personID, checkedOut);
+			aggregates.remove(personID, pkg);
+			aggregates.add(personID, checkedOut);
+			unindexDate(checkOutIndex, pkg.getCheckOutDate(), pkgID);
+			indexDate(checkOutIndex, checkOutDate, pkgID);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Marks the notification email of a package as sent, leaving its other attributes
+	 * as they are stored now
+	 * @param pkgID				ID of the package
+	 */
+	public void setNotificationSent(long pkgID) {
+		long stamp = writeLock();
+		try {
+			Package pkg = packageIDMap.get(pkgID);
+			if (pkg == null) {
+				logger.warning("Package (ID: " + pkgID + ") to be marked notified not found in database.");
+				return;
+			}
+		
+			// replace the package, snapshots may still hold the old one
+			Package notified = new Package(pkg);
+			notified.setNotificationSent(true);
+			packageIDMap.put(pkgID, notified);
+			String personID = packageID2PersonID.get(pkgID);
+			updateActive(notified);
+			updateEntry(personID, notified);
+			updateColumns(personID, notified);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
@@ -83,21 +221,12 @@ public class DBMaps {
 	 * @param pkgID				ID of package to be deleted
 	 */
 	public void deletePackage(long pkgID) {
-		String personID = packageID2PersonID.get(pkgID);
-		
-		// If the package is not in the database, log the event.
-		if(personID == null) {
-			logger.warning("Package (ID: " + pkgID + ") to be deleted not found in database.");
-			return;
-		} 
-
-		// remove from personID2PackageIDs map
-		ArrayList<Long> pkgIDList = personID2PackageIDs.get(personID);
-		pkgIDList.remove(pkgID); // remove the package from the list (passed by reference)
-
-		// remove from other maps
-		packageID2PersonID.remove(pkgID);
-		packageIDMap.remove(pkgID);	
+		long stamp = writeLock();
+		try {
+			removePackage(pkgID);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
@@ -106,17 +235,22 @@ public class DBMaps {
 	 * @param person			Person to be added
 	 */
 	public void addPerson(Person person) {
-		String personID = person.getPersonID();
+		long stamp = writeLock();
+		try {
+			String personID = person.getPersonID();
 		
-		// If the person does not exist, return and log the event.
-		if(personIDMap.containsKey(personID)) {
-			logger.warning("Person (ID: " + personID + ") to be added is already in database.");
-			return;
-		}
+			// If the person does not exist, return and log the event.
+			if(personIDMap.containsKey(personID)) {
+				logger.warning("Person (ID: " + personID + ") to be added is already in database.");
+				return;
+			}
 
-		personIDMap.put(personID, person);
-		personID2PackageIDs.put(personID, new ArrayList<Long>());
-		
+			personIDMap.put(personID, person);
+			nameIndex.add(person);
+			personID2PackageIDs.put(personID, new LongList());
+		} finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
@@ -129,16 +263,27 @@ public class DBMaps {
 	 */
 	
 	public void editPerson(Person newPerson) {
-		String personID = newPerson.getPersonID();
+		long stamp = writeLock();
+		try {
+			String personID = newPerson.getPersonID();
 		
-		//If person is not in database, log the event
-		if (!personIDMap.containsKey(personID)) {
-			logger.warning("Person (ID: " + personID + ") to be edited not found in database.");
-			return;
-		} 
+			//If person is not in database, log the event
+			if (!personIDMap.containsKey(personID)) {
+				logger.warning("Person (ID: " + personID + ") to be edited not found in database.");
+				return;
+			} 
 
-		//edit the personIDMap only
-		personIDMap.put(personID, newPerson);
+			//edit the personIDMap and the entries of the person's packages
+			personIDMap.put(personID, newPerson);
+			nameIndex.remove(personID);
+			nameIndex.add(newPerson);
+			LongList pkgIDList = personID2PackageIDs.get(personID);
+			for (int i = 0; i < pkgIDList.size(); i++) {
+				updateEntry(personID, packageIDMap.get(pkgIDList.get(i)));
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
@@ -147,27 +292,33 @@ public class DBMaps {
 	 * @param personID			ID of the person to be deleted
 	 */
 	public void deletePerson(String personID) {
+		long stamp = writeLock();
+		try {
 		
-		Person person = personIDMap.get(personID);
+			Person person = personIDMap.get(personID);
 		
-		// If person not found, log the event
-		if(person == null) {
-			logger.warning("Person (ID: " + personID + ") to be deleted delete not found in database.");
-			return;
-			//throw new DatabaseException("Person (Name: " + person.getFullName() + ") to be deleted delete not found in database.")
-		} 
+			// If person not found, log the event
+			if(person == null) {
+				logger.warning("Person (ID: " + personID + ") to be deleted delete not found in database.");
+				return;
+				//throw new DatabaseException("Person (Name: " + person.getFullName() + ") to be deleted delete not found in database.")
+			} 
 
-		// remove all packages of person
-		ArrayList<Long> pkgIDList = new ArrayList<Long>(personID2PackageIDs.get(personID));
+			// remove all packages of person
+			long[] pkgIDList = personID2PackageIDs.get(personID).toArray();
 		
-		for (long pkgID: pkgIDList) {
-			deletePackage(pkgID);
-		}
+			for (long pkgID: pkgIDList) {
+				removePackage(pkgID);
+			}
 		
-		// remove person from the maps
-		personIDMap.remove(person.getPersonID());
-		personID2PackageIDs.remove(personID);
+			// remove person from the maps
+			personIDMap.remove(person.getPersonID());
+			nameIndex.remove(personID);
+			personID2PackageIDs.remove(personID);
 
+		} finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/*
@@ -175,50 +326,412 @@ public class DBMaps {
 	 */
 	
 	public Person getPerson(String personID) {
-		return personIDMap.get(personID);
+		return optimisticRead(() -> personIDMap.get(personID));
 	}
 	
 	public String getOwnerID(long pkgID) {
-		return packageID2PersonID.get(pkgID);
+		return optimisticRead(() -> packageID2PersonID.get(pkgID));
 	}
 	
 	public Package getPackage(long packageID) {
-		return packageIDMap.get(packageID);
+		return optimisticRead(() -> packageIDMap.get(packageID));
 	}
 	
-	public ArrayList<Long> getOwnedPackageIDs(String personID) {
-		return new ArrayList<Long>(personID2PackageIDs.get(personID));
+	/**
+	 * Returns the entry of a package
+	 * @param pkgID				ID of the package
+	 * @return					Entry of the package and its owner, or null if there is none
+	 */
+	public Pair<Person,Package> getEntry(long pkgID) {
+		long stamp = lock.readLock();
+		try {
+			Package pkg = packageIDMap.get(pkgID);
+			if(pkg == null) {
+				return null;
+			}
+			return new Pair<Person,Package>(personIDMap.get(packageID2PersonID.get(pkgID)), pkg);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	public long[] getOwnedPackageIDs(String personID) {
+		long stamp = lock.readLock();
+		try {
+			return personID2PackageIDs.get(personID).toArray();
+		} finally {
+			lock.unlockRead(stamp);
+		}
 	}
 	
 	public ArrayList<Person> getAllPersons() {
-		return new ArrayList<Person>(personIDMap.values());
+		long stamp = lock.readLock();
+		try {
+			return new ArrayList<Person>(personIDMap.values());
+		} finally {
+			lock.unlockRead(stamp);
+		}
 	}
 	
 	public ArrayList<Package> getAllPackages() {
-		return new ArrayList<Package>(packageIDMap.values());
+		long stamp = lock.readLock();
+		try {
+			return packageIDMap.values();
+		} finally {
+			lock.unlockRead(stamp);
+		}
 	}
 	
 	public ArrayList<String> getAllPersonIDs() {
-		return new ArrayList<String>(personIDMap.keySet());
+		long stamp = lock.readLock();
+		try {
+			return new ArrayList<String>(personIDMap.keySet());
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	public long[] getAllPackageIDs() {
+		long stamp = lock.readLock();
+		try {
+			return packageIDMap.keys();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Returns the persons whose name or personID contains the search string, ignoring case
+	 * @param searchString		String to search for
+	 * @return					ArrayList of matching persons
+	 */
+	public ArrayList<Person> searchPersons(String searchString) {
+		long stamp = lock.readLock();
+		try {
+			ArrayList<String> personIDs = nameIndex.search(searchString);
+			ArrayList<Person> result = new ArrayList<Person>(personIDs.size());
+			for (String personID: personIDs) {
+				result.add(personIDMap.get(personID));
+			}
+			return result;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Returns the IDs of the persons whose name or personID contains the search string,
+	 * ignoring case
+	 * @param searchString		String to search for
+	 * @return					ArrayList of matching person IDs
+	 */
+	public ArrayList<String> searchPersonIDs(String searchString) {
+		long stamp = lock.readLock();
+		try {
+			return nameIndex.search(searchString);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Returns an ArrayList of the entries owned by the given persons
+	 * @param personIDs			IDs of the owners, unknown IDs are skipped
+	 * @return					ArrayList of their entries
+	 */
+	public ArrayList<Pair<Person,Package>> getOwnedEntries(Collection<String> personIDs) {
+		long stamp = lock.readLock();
+		try {
+			ArrayList<Pair<Person,Package>> result = new ArrayList<Pair<Person,Package>>();
+			for (String personID: personIDs) {
+				Person person = personIDMap.get(personID);
+				LongList pkgIDs = personID2PackageIDs.get(personID);
+				if(pkgIDs == null) {
+					continue;
+				}
+				for (int i = 0; i < pkgIDs.size(); i++) {
+					result.add(new Pair<Person,Package>(person, packageIDMap.get(pkgIDs.get(i))));
+				}
+			}
+			return result;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	public int getActivePackageCount() {
+		return optimisticRead(() -> activePackageMap.size());
+	}
+	
+	public int getWaitingCount(String personID) {
+		return optimisticRead(() -> aggregates.getWaitingCount(personID));
+	}
+	
+	/**
+	 * Returns the number of waiting packages of every person with any
+	 * @return					New map of personID to number of waiting packages
+	 */
+	public HashMap<String,Integer> getWaitingCounts() {
+		long stamp = lock.readLock();
+		try {
+			return aggregates.getWaitingCounts();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	public int getCheckInCount(LocalDate day) {
+		return optimisticRead(() -> aggregates.getCheckInCount(day));
+	}
+	
+	public int getCheckInCount(LocalDateTime hour) {
+		return optimisticRead(() -> aggregates.getCheckInCount(hour));
+	}
+	
+	/**
+	 * Returns an ArrayList of the entries whose packages have not been checked out
+	 * @return					ArrayList of active entries
+	 */
+	public ArrayList<Pair<Person,Package>> getActiveEntries() {
+		long stamp = lock.readLock();
+		try {
+			ArrayList<Package> active = activePackageMap.values();
+			ArrayList<Pair<Person,Package>> result = new ArrayList<Pair<Person,Package>>(active.size());
+			for (Package pkg: active) {
+				Person person = personIDMap.get(packageID2PersonID.get(pkg.getPackageID()));
+				result.add(new Pair<Person,Package>(person,pkg));
+			}
+			return result;
+		} finally {
+			lock.unlockRead(stamp);
+		}
 	}
 	
-	public ArrayList<Long> getAllPackageIDs() {
-		return new ArrayList<Long>(packageIDMap.keySet());
+	/**
+	 * Returns an ArrayList of the entries checked in within a time range
+	 * @param fromMillis		Start of the range in epoch millis, inclusive
+	 * @param toMillis			End of the range in epoch millis, exclusive
+	 * @return					ArrayList of matching entries, in check in order
+	 */
+	public ArrayList<Pair<Person,Package>> getEntriesCheckedInBetween(long fromMillis, long toMillis) {
+		return getEntriesBetween(checkInIndex, fromMillis, toMillis);
 	}
 	
 	/**
-	 * Returns an ArrayList of all entries
-	 * @return					ArrayList of all entries
+	 * Returns an ArrayList of the entries checked out within a time range
+	 * @param fromMillis		Start of the range in epoch millis, inclusive
+	 * @param toMillis			End of the range in epoch millis, exclusive
+	 * @return					ArrayList of matching entries, in check out order
 	 */
-	public ArrayList<Pair<Person,Package>> getAllEntries() {
-		ArrayList<Pair<Person,Package>> result = new ArrayList<Pair<Person,Package>>();
-		ArrayList<Long> pkgIDList = getAllPackageIDs(); 
-		for (long pkgID: pkgIDList) {
-			Package pkg = getPackage(pkgID);
-			Person person = getPerson(getOwnerID(pkgID));
-			result.add(new Pair<Person,Package>(person,pkg));
+	public ArrayList<Pair<Person,Package>> getEntriesCheckedOutBetween(long fromMillis, long toMillis) {
+		return getEntriesBetween(checkOutIndex, fromMillis, toMillis);
+	}
+	
+	public boolean hasPackageColumns() {
+		return packageColumns != null;
+	}
+	
+	/**
+	 * Returns the entries matching all of the given conditions by scanning the package
+	 * columns, only creating entries for the matching packages. The maps must have been
+	 * created with package columns.
+	 * @param checkedInOnly		Whether to only return packages that have not been checked out
+	 * @param checkInRange		Range {from, to} of check in epoch millis, from inclusive and to
+	 * 							exclusive, or null for any check in time
+	 * @param checkOutRange		Range {from, to} of check out epoch millis, as above, or null for
+	 * 							any check out time
+	 * @return					ArrayList of matching entries
+	 */
+	public ArrayList<Pair<Person,Package>> scanEntries(boolean checkedInOnly, long[] checkInRange,
+			long[] checkOutRange) {
+		if(packageColumns == null) {
+			throw new IllegalStateException("Package columns are not in use");
+		}
+		long stamp = lock.readLock();
+		try {
+			int[] rows = packageColumns.scan(checkedInOnly, checkInRange, checkOutRange);
+			ArrayList<Pair<Person,Package>> result = new ArrayList<Pair<Person,Package>>(rows.length);
+			for (int row: rows) {
+				result.add(new Pair<Person,Package>(personIDMap.get(packageColumns.getOwnerID(row)),
+						packageIDMap.get(packageColumns.getPackageID(row))));
+			}
+			return result;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Returns all entries, as of the current snapshot
+	 * @return					Unmodifiable list of all entries
+	 */
+	public List<Pair<Person,Package>> getAllEntries() {
+		return getSnapshot().getEntries();
+	}
+	
+	/**
+	 * Returns an immutable snapshot of all entries at the current version. The entries
+	 * are kept up to date by the writes, so a new snapshot after a change only copies
+	 * one reference per chunk of entries, and repeated calls between writes are free.
+	 * @return					Snapshot of the entries
+	 */
+	public DBSnapshot getSnapshot() {
+		long stamp = lock.tryOptimisticRead();
+		DBSnapshot current = snapshot;
+		if(current != null && current.getVersion() == version && lock.validate(stamp)) {
+			return current;
+		}
+		
+		// taking a snapshot marks the entry chunks as shared, so it needs the write lock,
+		// without moving to a new version
+		stamp = lock.writeLock();
+		try {
+			current = snapshot;
+			if(current == null || current.getVersion() != version) {
+				current = entries.snapshot(version);
+				snapshot = current;
+			}
+			return current;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/*
+	 * Takes the write lock for a change to the maps, moving them to a new version
+	 */
+	private long writeLock() {
+		long stamp = lock.writeLock();
+		version++;
+		return stamp;
+	}
+	
+	/*
+	 * Runs a single lookup without locking, retrying under the read lock if a write
+	 * happened meanwhile. A lookup racing a write can see a map mid-update and fail,
+	 * which is treated the same way.
+	 */
+	private <T> T optimisticRead(Supplier<T> lookup) {
+		long stamp = lock.tryOptimisticRead();
+		if(stamp != 0) {
+			try {
+				T result = lookup.get();
+				if(lock.validate(stamp)) {
+					return result;
+				}
+			} catch (RuntimeException e) {
+				// the maps changed during the lookup, read again under the lock
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return lookup.get();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/*
+	 * Removes a package from every map, the write lock must be held
+	 */
+	private void removePackage(long pkgID) {
+		String personID = packageID2PersonID.get(pkgID);
+		
+		// If the package is not in the database, log the event.
+		if(personID == null) {
+			logger.warning("Package (ID: " + pkgID + ") to be deleted not found in database.");
+			return;
+		} 
+
+		// remove from personID2PackageIDs map
+		LongList pkgIDList = personID2PackageIDs.get(personID);
+		pkgIDList.remove(pkgID); // remove the package from the list (passed by reference)
+
+		// remove from other maps
+		packageID2PersonID.remove(pkgID);
+		Package pkg = packageIDMap.remove(pkgID);	
+		activePackageMap.remove(pkgID);
+		entries.remove(pkgID);
+		if(packageColumns != null) {
+			packageColumns.remove(pkgID);
+		}
+		aggregates.remove(personID, pkg);
+		unindexDate(checkInIndex, pkg.getCheckInDate(), pkgID);
+		unindexDate(checkOutIndex, pkg.getCheckOutDate(), pkgID);
+	}
+	
+	private void updateEntry(String personID, Package pkg) {
+		entries.put(new Pair<Person,Package>(personIDMap.get(personID), pkg));
+	}
+	
+	private void updateColumns(String personID, Package pkg) {
+		if(packageColumns != null) {
+			packageColumns.put(personID, pkg);
+		}
+	}
+	
+	/*
+	 * Adds a package to the active packages if it has not been checked out,
+	 * removing it otherwise
+	 */
+	private void updateActive(Package pkg) {
+		if(pkg.getCheckOutDate() == null) {
+			activePackageMap.put(pkg.getPackageID(), pkg);
+		} else {
+			activePackageMap.remove(pkg.getPackageID());
+		}
+	}
+	
+	private ArrayList<Pair<Person,Package>> getEntriesBetween(
+			TreeMap<Long,LongList> index, long fromMillis, long toMillis) {
+		long stamp = lock.readLock();
+		try {
+			ArrayList<Pair<Person,Package>> result = new ArrayList<Pair<Person,Package>>();
+			if(fromMillis >= toMillis) {
+				return result;
+			}
+			for (LongList pkgIDs: index.subMap(fromMillis, true, toMillis, false).values()) {
+				for (int i = 0; i < pkgIDs.size(); i++) {
+					long pkgID = pkgIDs.get(i);
+					result.add(new Pair<Person,Package>(personIDMap.get(packageID2PersonID.get(pkgID)),
+							packageIDMap.get(pkgID)));
+				}
+			}
+			return result;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	private static void indexDate(TreeMap<Long,LongList> index, Date date, long pkgID) {
+		if(date == null) {
+			return;
+		}
+		LongList pkgIDs = index.get(date.getTime());
+		if(pkgIDs == null) {
+			pkgIDs = new LongList();
+			index.put(date.getTime(), pkgIDs);
+		}
+		pkgIDs.add(pkgID);
+	}
+	
+	private void unindexDate(TreeMap<Long,LongList> index, Date date, long pkgID) {
+		if(date == null || removeFromIndex(index, date.getTime(), pkgID)) {
+			return;
+		}
+		// stored packages are never modified, so the index has gone out of step with them
+		logger.warning("Package (ID: " + pkgID + ") not found in the date index at " + date.getTime());
+	}
+	
+	private static boolean removeFromIndex(TreeMap<Long,LongList> index, long millis, long pkgID) {
+		LongList pkgIDs = index.get(millis);
+		if(pkgIDs == null || !pkgIDs.remove(pkgID)) {
+			return false;
+		}
+		if(pkgIDs.isEmpty()) {
+			index.remove(millis);
 		}
-		return result;
+		return true;
 	}
 	
 	public static void main(String[] args) {
@@ -246,8 +759,7 @@ public class DBMaps {
 		dbMap.addPackage(navin.getPersonID(),p2);
 		dbMap.addPackage(navin.getPersonID(),p3);
 		
-		p3.setCheckOutDate(now);
-		dbMap.editPackage(p3);
+		dbMap.checkOutPackage(p3.getPackageID(), now);
 		
 		dbMap.deletePackage(p2.getPackageID());
 		dbMap.deletePerson(ambi.getPersonID());
@@ -259,12 +771,13 @@ public class DBMaps {
 		System.out.println(dbMap.getPerson("cwh1").getFullName());
 		System.out.println(dbMap.getPerson(dbMap.getOwnerID(p3.getPackageID())).getFullName());
 		System.out.println(dbMap.getPackage(309435).getCheckOutDate());
-		System.out.println(dbMap.getOwnedPackageIDs(chris.getPersonID()).toString());
+		System.out.println(Arrays.toString(dbMap.getOwnedPackageIDs(chris.getPersonID())));
 		System.out.println(dbMap.getAllPersons().toString());
 		System.out.println(dbMap.getAllPackages().toString());
 		System.out.println(dbMap.getAllPersonIDs().toString());
-		System.out.println(dbMap.getAllPackageIDs().toString());
+		System.out.println(Arrays.toString(dbMap.getAllPackageIDs()));
 		System.out.println(dbMap.getAllEntries().get(0).second.toString());
+		System.out.println(dbMap.getActiveEntries().size());
 		//System.out.println(dbMap.getPackage(123).toString());
 		//System.out.println(getPerson(p1).getpersonID());		// should throw exception
 	}
@@ -0,0 +1,163 @@
+package main.java.model.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import main.java.util.LongObjectMap;
+import main.java.util.Person;
+
+/**
+ * Bigram and trigram index over the lower case "last, first" and "first last" names
+ * and the personID of each person, for substring searches of persons by name or NetID.
+ *
+ * A search of two or three characters is answered by its posting directly. Longer
+ * searches take the rarest trigram posting and check its persons with String.contains,
+ * so the results are exactly those of a scan. Single characters scan the normalized keys.
+ *
+ * Not thread safe, maintained by DBMaps.
+ */
+public class DBNameIndex {
+
+	private static final int MIN_GRAM = 2;
+	private static final int MAX_GRAM = 3;
+
+	// normalized search keys of each person
+	private HashMap<String,String[]> personKeys;
+	// IDs of the persons whose keys contain each bigram and trigram
+	private LongObjectMap<HashSet<String>> postings;
+
+	public DBNameIndex() {
+		this.personKeys = new HashMap<String,String[]>();
+		this.postings = new LongObjectMap<HashSet<String>>();
+	}
+
+	/**
+	 * Adds a person to the index
+	 * @param person			Person to add
+	 */
+	public void add(Person person) {
+		String personID = person.getPersonID();
+		String[] keys = normalizedKeys(person);
+		personKeys.put(personID, keys);
+		for (String key: keys) {
+			for (int length = MIN_GRAM; length <= MAX_GRAM; length++) {
+				for (int i = 0; i + length <= key.length(); i++) {
+					long gram = gram(key, i, length);
+					HashSet<String> personIDs = postings.get(gram);
+					if(personIDs == null) {
+						personIDs = new HashSet<String>();
+						postings.put(gram, personIDs);
+					}
+					personIDs.add(personID);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a person from the index
+	 * @param personID			ID of the person to remove
+	 */
+	public void remove(String personID) {
+		String[] keys = personKeys.remove(personID);
+		if(keys == null) {
+			return;
+		}
+		for (String key: keys) {
+			for (int length = MIN_GRAM; length <= MAX_GRAM; length++) {
+				for (int i = 0; i + length <= key.length(); i++) {
+					long gram = gram(key, i, length);
+					HashSet<String> personIDs = postings.get(gram);
+					if(personIDs != null) {
+						personIDs.remove(personID);
+						if(personIDs.isEmpty()) {
+							postings.remove(gram);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the IDs of the persons whose "last, first" name, "first last" name or
+	 * personID contains the search string, ignoring case
+	 * @param searchString		String to search for
+	 * @return					IDs of the matching persons, in no particular order
+	 */
+	public ArrayList<String> search(String searchString) {
+		String query = searchString.toLowerCase();
+		if(query.isEmpty()) {
+			return new ArrayList<String>(personKeys.keySet());
+		}
+		ArrayList<String> result = new ArrayList<String>();
+		if(query.length() < MIN_GRAM) {
+			for (Map.Entry<String,String[]> entry: personKeys.entrySet()) {
+				if(matches(entry.getValue(), query)) {
+					result.add(entry.getKey());
+				}
+			}
+			return result;
+		}
+		if(query.length() <= MAX_GRAM) {
+			HashSet<String> personIDs = postings.get(gram(query, 0, query.length()));
+			if(personIDs != null) {
+				result.addAll(personIDs);
+			}
+			return result;
+		}
+
+		// find the rarest trigram of the query, every match must contain it
+		HashSet<String> candidates = null;
+		for (int i = 0; i + MAX_GRAM <= query.length(); i++) {
+			HashSet<String> personIDs = postings.get(gram(query, i, MAX_GRAM));
+			if(personIDs == null) {
+				return result;
+			}
+			if(candidates == null || personIDs.size() < candidates.size()) {
+				candidates = personIDs;
+			}
+		}
+
+		for (String personID: candidates) {
+			if(matches(personKeys.get(personID), query)) {
+				result.add(personID);
+			}
+		}
+		return result;
+	}
+
+	public int size() {
+		return personKeys.size();
+	}
+
+	private static boolean matches(String[] keys, String query) {
+		for (String key: keys) {
+			if(key.contains(query)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String[] normalizedKeys(Person person) {
+		return new String[] {
+				person.getLastFirstName().toLowerCase(),
+				person.getFullName().toLowerCase(),
+				String.valueOf(person.getPersonID()).toLowerCase()
+		};
+	}
+
+	/*
+	 * Packs the length and the characters of the gram starting at i into a long
+	 */
+	private static long gram(String s, int i, int length) {
+		long gram = length;
+		for (int j = i; j < i + length; j++) {
+			gram = (gram << 16) | s.charAt(j);
+		}
+		return gram;
+	}
+}
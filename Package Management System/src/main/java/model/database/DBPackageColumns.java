@@ -0,0 +1,173 @@
+package main.java.model.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import main.java.util.LongObjectMap;
+import main.java.util.Package;
+
+/**
+ * Column store of the packages, holding each field in its own primitive array so
+ * that scans over the whole history run as tight loops over contiguous memory
+ * instead of following a Package object per row.
+ *
+ * Columns:
+ * 		packageIDs			long
+ * 		checkInMillis		long, NONE if there is no check in date
+ * 		checkOutMillis		long, NONE while the package is checked in
+ * 		ownerRows			int, index of the owner's personID in ownerIDs
+ * 		notificationSent	bit per row
+ *
+ * Rows are unordered, a removed row is filled with the last row.
+ *
+ * Not thread safe, maintained by DBMaps.
+ */
+public class DBPackageColumns {
+
+	private static final int MIN_CAPACITY = 64;
+	// value of a missing date
+	private static final long NONE = Long.MIN_VALUE;
+
+	private long[] packageIDs;
+	private long[] checkInMillis;
+	private long[] checkOutMillis;
+	private int[] ownerRows;
+	private BitSet notificationSent;
+	private int size;
+
+	// row of each packageID
+	private LongObjectMap<Integer> rowOf;
+	// owners are stored once and referenced by index from the rows
+	private ArrayList<String> ownerIDs;
+	private HashMap<String,Integer> ownerIndex;
+
+	public DBPackageColumns() {
+		this.packageIDs = new long[MIN_CAPACITY];
+		this.checkInMillis = new long[MIN_CAPACITY];
+		this.checkOutMillis = new long[MIN_CAPACITY];
+		this.ownerRows = new int[MIN_CAPACITY];
+		this.notificationSent = new BitSet(MIN_CAPACITY);
+		this.rowOf = new LongObjectMap<Integer>();
+		this.ownerIDs = new ArrayList<String>();
+		this.ownerIndex = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Adds a package, or replaces the row of a package already in the columns
+	 * @param personID			ID of the owner
+	 * @param pkg				Package to store
+	 */
+	public void put(String personID, Package pkg) {
+		long pkgID = pkg.getPackageID();
+		Integer row = rowOf.get(pkgID);
+		if(row == null) {
+			if(size == packageIDs.length) {
+				grow();
+			}
+			row = size++;
+			rowOf.put(pkgID, row);
+		}
+		packageIDs[row] = pkgID;
+		checkInMillis[row] = pkg.getCheckInDate() == null ? NONE : pkg.getCheckInDate().getTime();
+		checkOutMillis[row] = pkg.getCheckOutDate() == null ? NONE : pkg.getCheckOutDate().getTime();
+		ownerRows[row] = ownerIndexOf(personID);
+		notificationSent.set(row, pkg.isNotificationSent());
+	}
+
+	/**
+	 * Removes a package from the columns
+	 * @param pkgID				ID of the package to remove
+	 */
+	public void remove(long pkgID) {
+		Integer row = rowOf.remove(pkgID);
+		if(row == null) {
+			return;
+		}
+		int last = --size;
+		if(row != last) {
+			// move the last row into the hole
+			packageIDs[row] = packageIDs[last];
+			checkInMillis[row] = checkInMillis[last];
+			checkOutMillis[row] = checkOutMillis[last];
+			ownerRows[row] = ownerRows[last];
+			notificationSent.set(row, notificationSent.get(last));
+			rowOf.put(packageIDs[row], row);
+		}
+		notificationSent.clear(last);
+	}
+
+	/**
+	 * Returns the packages that match all of the given conditions
+	 * @param checkedInOnly		Whether to only match packages that have not been checked out
+	 * @param checkInRange		Range {from, to} of check in epoch millis, from inclusive and to
+	 * 							exclusive, or null for any check in time
+	 * @param checkOutRange		Range {from, to} of check out epoch millis, as above, or null for
+	 * 							any check out time including none
+	 * @return					Rows of the matching packages
+	 */
+	public int[] scan(boolean checkedInOnly, long[] checkInRange, long[] checkOutRange) {
+		int[] rows = new int[MIN_CAPACITY];
+		int count = 0;
+		boolean checkIn = checkInRange != null;
+		boolean checkOut = checkOutRange != null;
+		long inFrom = checkIn ? checkInRange[0] : 0;
+		long inTo = checkIn ? checkInRange[1] : 0;
+		long outFrom = checkOut ? checkOutRange[0] : 0;
+		long outTo = checkOut ? checkOutRange[1] : 0;
+
+		for (int row = 0; row < size; row++) {
+			long in = checkInMillis[row];
+			long out = checkOutMillis[row];
+			if(checkedInOnly && out != NONE) {
+				continue;
+			}
+			if(checkIn && (in == NONE || in < inFrom || in >= inTo)) {
+				continue;
+			}
+			if(checkOut && (out == NONE || out < outFrom || out >= outTo)) {
+				continue;
+			}
+			if(count == rows.length) {
+				rows = Arrays.copyOf(rows, count * 2);
+			}
+			rows[count++] = row;
+		}
+		return Arrays.copyOf(rows, count);
+	}
+
+	public long getPackageID(int row) {
+		return packageIDs[row];
+	}
+
+	public String getOwnerID(int row) {
+		return ownerIDs.get(ownerRows[row]);
+	}
+
+	public boolean isNotificationSent(int row) {
+		return notificationSent.get(row);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int ownerIndexOf(String personID) {
+		Integer index = ownerIndex.get(personID);
+		if(index == null) {
+			index = ownerIDs.size();
+			ownerIDs.add(personID);
+			ownerIndex.put(personID, index);
+		}
+		return index;
+	}
+
+	private void grow() {
+		int capacity = packageIDs.length * 2;
+		packageIDs = Arrays.copyOf(packageIDs, capacity);
+		checkInMillis = Arrays.copyOf(checkInMillis, capacity);
+		checkOutMillis = Arrays.copyOf(checkOutMillis, capacity);
+		ownerRows = Arrays.copyOf(ownerRows, capacity);
+	}
+}
@@ -0,0 +1,364 @@
+package main.java.model.database;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import main.java.util.LongObjectMap;
+import main.java.util.Package;
+import main.java.util.Pair;
+
+/**
+ * Memory-mapped store of package records with a fixed-width layout, so that a
+ * package can be updated in place without serializing its owner.
+ *
+ * File format:
+ * 		header				64 bytes
+ * 			magic			4 bytes "PMSP"
+ * 			version			int
+ * 			record count	int
+ * 		records				256 bytes each
+ * 			packageID		long
+ * 			checkInDate		long epoch millis
+ * 			checkOutDate	long epoch millis, -1 if not checked out
+ * 			flags			byte, see NOTIFICATION_SENT and COMMENT_TRUNCATED
+ * 			owner length	byte
+ * 			ownerID			32 bytes UTF-8, longer IDs are rejected
+ * 			comment length	short
+ * 			comment			196 bytes UTF-8
+ *
+ * The packageID to record index is rebuilt from the records when the store is opened.
+ */
+public class DBPackageStore {
+
+	private static final byte[] MAGIC = {'P', 'M', 'S', 'P'};
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 64;
+	private static final int COUNT_OFFSET = 8;
+	private static final int RECORD_SIZE = 256;
+	private static final int GROWTH_RECORDS = 4096;
+
+	// record field offsets
+	private static final int ID = 0;
+	private static final int CHECK_IN = 8;
+	private static final int CHECK_OUT = 16;
+	private static final int FLAGS = 24;
+	private static final int OWNER_LENGTH = 25;
+	private static final int OWNER = 26;
+	private static final int OWNER_SIZE = 32;
+	private static final int COMMENT_LENGTH = OWNER + OWNER_SIZE;
+	private static final int COMMENT = COMMENT_LENGTH + 2;
+	private static final int COMMENT_SIZE = RECORD_SIZE - COMMENT;
+
+	private static final byte NOTIFICATION_SENT = 1;
+	private static final byte COMMENT_TRUNCATED = 2;
+
+	private String filePath;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+
+	private LongObjectMap<Integer> recordIndex;
+	private int recordCount;
+	private int recordCapacity;
+
+	private DBDurability durability;
+
+	private Logger logger;
+
+	public DBPackageStore(String filePath) {
+		this.filePath = filePath;
+		this.recordIndex = new LongObjectMap<Integer>();
+		this.durability = DBDurability.GROUP;
+		this.logger = Logger.getLogger(DBPackageStore.class.getName());
+	}
+
+	/**
+	 * Sets when changed records are forced to disk. With FSYNC every change is forced,
+	 * with GROUP changes are forced by calls to force, and with BUFFERED only on close.
+	 * @param durability		Durability policy
+	 */
+	public void setDurability(DBDurability durability) {
+		this.durability = durability;
+	}
+
+	/**
+	 * Opens and maps the store, creating it if it does not exist, and builds the
+	 * packageID index from the records
+	 * @throws IOException		If the file cannot be mapped or is not a package store
+	 */
+	public void open() throws IOException {
+		file = new RandomAccessFile(filePath, "rw");
+		channel = file.getChannel();
+
+		boolean isNew = channel.size() < HEADER_SIZE;
+		int capacity = isNew ? GROWTH_RECORDS
+				: (int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE);
+		map(capacity);
+
+		if(isNew) {
+			buffer.put(0, MAGIC[0]).put(1, MAGIC[1]).put(2, MAGIC[2]).put(3, MAGIC[3]);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(COUNT_OFFSET, 0);
+		} else {
+			for (int i = 0; i < MAGIC.length; i++) {
+				if(buffer.get(i) != MAGIC[i]) {
+					close();
+					throw new IOException(filePath + " is not a package store");
+				}
+			}
+		}
+
+		recordCount = buffer.getInt(COUNT_OFFSET);
+		recordIndex.clear();
+		for (int i = 0; i < recordCount; i++) {
+			recordIndex.put(buffer.getLong(offset(i) + ID), i);
+		}
+		logger.info("Opened package store with " + recordCount + " records");
+	}
+
+	/**
+	 * Writes any changes to disk and closes the store
+	 */
+	public void close() {
+		if(channel == null) {
+			return;
+		}
+		force();
+		try {
+			channel.close();
+			file.close();
+		} catch (IOException e) {
+			logger.warning("Failed to close package store " + filePath);
+		}
+		channel = null;
+		buffer = null;
+	}
+
+	/**
+	 * Forces changes to the mapped records out to disk
+	 */
+	public void force() {
+		MappedByteBuffer mapped = buffer;
+		if(mapped != null) {
+			mapped.force();
+		}
+	}
+
+	/**
+	 * Returns whether the store has a record for a package
+	 * @param pkgID				ID of the package
+	 * @return					True if the package has a record
+	 */
+	public boolean contains(long pkgID) {
+		return recordIndex.containsKey(pkgID);
+	}
+
+	/**
+	 * Returns whether an owner ID fits in the owner field of a record
+	 * @param ownerID			ID of the package owner
+	 * @return					True if packages of the owner can be stored
+	 */
+	public static boolean fitsOwner(String ownerID) {
+		return ownerID.getBytes(StandardCharsets.UTF_8).length <= OWNER_SIZE;
+	}
+
+	/**
+	 * Writes a package record, overwriting the existing record for the package if there is one
+	 * @param ownerID			ID of the package owner, see fitsOwner
+	 * @param pkg				Package to write
+	 * @return					Success of writing the record
+	 * @throws IllegalArgumentException if the owner ID does not fit in a record
+	 */
+	public boolean put(String ownerID, Package pkg) {
+		if(!fitsOwner(ownerID)) {
+			// a truncated owner would restore the package to the wrong person
+			throw new IllegalArgumentException("Owner ID " + ownerID + " is longer than " +
+					OWNER_SIZE + " bytes");
+		}
+		if(buffer == null) {
+			return false;
+		}
+		Integer record = recordIndex.get(pkg.getPackageID());
+		if(record == null) {
+			if(recordCount == recordCapacity && !grow()) {
+				return false;
+			}
+			record = recordCount;
+		}
+
+		int base = offset(record);
+		buffer.putLong(base + ID, pkg.getPackageID());
+		buffer.putLong(base + CHECK_IN, pkg.getCheckInDate().getTime());
+		writeState(base, pkg);
+		int ownerLength = putString(base + OWNER, OWNER_SIZE, ownerID);
+		buffer.put(base + OWNER_LENGTH, (byte) ownerLength);
+
+		if(record == recordCount) {
+			// only count the record once it is completely written
+			recordCount++;
+			buffer.putInt(COUNT_OFFSET, recordCount);
+			recordIndex.put(pkg.getPackageID(), record);
+		}
+		forceIfRequired();
+		return true;
+	}
+
+	/**
+	 * Updates the check out date, notification flag and comment of a package in place
+	 * @param pkg				Package containing the new attributes
+	 * @return					Success of updating the record, false if it is not in the store
+	 */
+	public boolean update(Package pkg) {
+		Integer record = buffer == null ? null : recordIndex.get(pkg.getPackageID());
+		if(record == null) {
+			return false;
+		}
+		writeState(offset(record), pkg);
+		forceIfRequired();
+		return true;
+	}
+
+	/**
+	 * Sets the check out date of a package in place
+	 * @param pkgID				ID of the package checked out
+	 * @param checkOutDate		Date the package was checked out
+	 * @return					Success of updating the record, false if it is not in the store
+	 */
+	public boolean setCheckOutDate(long pkgID, Date checkOutDate) {
+		Integer record = buffer == null ? null : recordIndex.get(pkgID);
+		if(record == null) {
+			return false;
+		}
+		buffer.putLong(offset(record) + CHECK_OUT, checkOutDate.getTime());
+		forceIfRequired();
+		return true;
+	}
+
+	/**
+	 * Sets the notification flag of a package in place, leaving its other attributes
+	 * @param pkgID				ID of the package
+	 * @return					Success of updating the record, false if it is not in the store
+	 */
+	public boolean setNotificationSent(long pkgID) {
+		Integer record = buffer == null ? null : recordIndex.get(pkgID);
+		if(record == null) {
+			return false;
+		}
+		int flags = offset(record) + FLAGS;
+		buffer.put(flags, (byte) (buffer.get(flags) | NOTIFICATION_SENT));
+		forceIfRequired();
+		return true;
+	}
+
+	/**
+	 * Reads every record in the store
+	 * @return					Pairs of owner ID and package. Packages whose comment did
+	 * 							not fit in the record have a null comment.
+	 */
+	public ArrayList<Pair<String,Package>> readAll() {
+		ArrayList<Pair<String,Package>> result = new ArrayList<Pair<String,Package>>(recordCount);
+		for (int i = 0; i < recordCount; i++) {
+			int base = offset(i);
+			byte flags = buffer.get(base + FLAGS);
+			String ownerID = getString(base + OWNER, buffer.get(base + OWNER_LENGTH) & 0xFF);
+			String comment = (flags & COMMENT_TRUNCATED) != 0 ? null
+					: getString(base + COMMENT, buffer.getShort(base + COMMENT_LENGTH));
+
+			Package pkg = new Package(buffer.getLong(base + ID), comment,
+					new Date(buffer.getLong(base + CHECK_IN)));
+			long checkOutTime = buffer.getLong(base + CHECK_OUT);
+			if(checkOutTime >= 0) {
+				pkg.setCheckOutDate(new Date(checkOutTime));
+			}
+			pkg.setNotificationSent((flags & NOTIFICATION_SENT) != 0);
+			result.add(new Pair<String,Package>(ownerID, pkg));
+		}
+		return result;
+	}
+
+	/*
+	 * Forces a change to disk straight away under the FSYNC policy
+	 */
+	private void forceIfRequired() {
+		if(durability == DBDurability.FSYNC) {
+			buffer.force();
+		}
+	}
+
+	/*
+	 * Writes the mutable fields of a package into the record at base
+	 */
+	private void writeState(int base, Package pkg) {
+		Date checkOutDate = pkg.getCheckOutDate();
+		buffer.putLong(base + CHECK_OUT, checkOutDate == null ? -1 : checkOutDate.getTime());
+
+		String comment = pkg.getComment() == null ? "" : pkg.getComment();
+		int commentLength = putString(base + COMMENT, COMMENT_SIZE, comment);
+		buffer.putShort(base + COMMENT_LENGTH, (short) commentLength);
+
+		byte flags = 0;
+		if(pkg.isNotificationSent()) {
+			flags |= NOTIFICATION_SENT;
+		}
+		if(commentLength < comment.getBytes(StandardCharsets.UTF_8).length) {
+			flags |= COMMENT_TRUNCATED;
+		}
+		buffer.put(base + FLAGS, flags);
+	}
+
+	/*
+	 * Writes as much of s as fits in size bytes without splitting a character,
+	 * returning the number of bytes written
+	 */
+	private int putString(int position, int size, String s) {
+		byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+		int length = Math.min(utf8.length, size);
+		// back up to the start of a character
+		while(length < utf8.length && length > 0 && (utf8[length] & 0xC0) == 0x80) {
+			length--;
+		}
+		for (int i = 0; i < length; i++) {
+			buffer.put(position + i, utf8[i]);
+		}
+		return length;
+	}
+
+	private String getString(int position, int length) {
+		byte[] utf8 = new byte[length];
+		for (int i = 0; i < length; i++) {
+			utf8[i] = buffer.get(position + i);
+		}
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Remaps the file with room for more records
+	 */
+	private boolean grow() {
+		try {
+			force();
+			map(recordCapacity + GROWTH_RECORDS);
+			return true;
+		} catch (IOException e) {
+			logger.warning("Failed to grow package store " + filePath);
+			return false;
+		}
+	}
+
+	private void map(int capacity) throws IOException {
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+				HEADER_SIZE + (long) capacity * RECORD_SIZE);
+		recordCapacity = capacity;
+	}
+
+	private static int offset(int record) {
+		return HEADER_SIZE + record * RECORD_SIZE;
+	}
+}
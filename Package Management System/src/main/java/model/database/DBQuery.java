@@ -0,0 +1,205 @@
+package main.java.model.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import main.java.util.Package;
+import main.java.util.Pair;
+import main.java.util.Person;
+
+/**
+ * Query plan compiled from a filter and a sort string of the language described in
+ * DBFormat. Compiling parses the strings once, the filter into a DBFilter expression
+ * and the sorts into a single comparator, so a plan can be run any number of times
+ * without parsing again.
+ *
+ * Running a plan starts from the cheapest indexed set of entries the filter allows,
+ * as chosen by the filter, then removes the entries failing the filter in one pass
+ * and sorts the rest. A plan
+ * can also return a single page, by offset or after the last entry of a previous page.
+ *
+ * Immutable, so plans can be shared between threads.
+ */
+public class DBQuery {
+
+	// null if there is no filter
+	private final DBFilter filter;
+	// null if there is no sort
+	private final Comparator<Pair<Person,Package>> comparator;
+	// total order of results and pages, the sort with ties broken by package ID
+	private final Comparator<Pair<Person,Package>> pageOrder;
+
+	private DBQuery(DBFilter filter, Comparator<Pair<Person,Package>> comparator) {
+		this.filter = filter;
+		this.comparator = comparator;
+		Comparator<Pair<Person,Package>> byPackageID =
+				Comparator.comparingLong(entry -> entry.second.getPackageID());
+		this.pageOrder = comparator == null ? byPackageID : comparator.thenComparing(byPackageID);
+	}
+
+	/**
+	 * Compiles a filter and a sort string into a plan
+	 * @param filterString		String containing filters, as for DBFormat.filter, or null
+	 * @param sortString		String containing sorts, as for DBFormat.sort, or null
+	 * @return					Compiled plan
+	 * @throws IllegalArgumentException if either string is not valid
+	 */
+	public static DBQuery compile(String filterString, String sortString) {
+		DBFilter filter = DBFilterParser.parse(filterString);
+
+		Comparator<Pair<Person,Package>> comparator = null;
+		if(sortString != null && !sortString.isEmpty()) {
+			comparator = DBFormat.getComparator(sortString);
+		}
+		return new DBQuery(filter, comparator);
+	}
+
+	/**
+	 * Runs the plan against the maps
+	 * @param dbMaps			Maps to query
+	 * @return					New ArrayList of the matching entries, sorted
+	 */
+	public ArrayList<Pair<Person,Package>> execute(DBMaps dbMaps) {
+		return execute(dbMaps, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Runs the plan against the maps, filtering and sorting on all cores when there
+	 * are many candidate entries
+	 * @param dbMaps			Maps to query
+	 * @param parallelThreshold	Number of candidate entries from which to work in parallel
+	 * @return					New ArrayList of the matching entries, sorted
+	 */
+	public ArrayList<Pair<Person,Package>> execute(DBMaps dbMaps, int parallelThreshold) {
+		DBFilter.Context context = new DBFilter.Context(dbMaps);
+		List<Pair<Person,Package>> candidates = candidates(dbMaps, context);
+		// a plan without filters or sorts only copies, and one core gains nothing
+		if(candidates.size() >= parallelThreshold && (hasFilters() || comparator != null) &&
+				ForkJoinPool.getCommonPoolParallelism() > 1) {
+			return executeParallel(candidates, context);
+		}
+		
+		ArrayList<Pair<Person,Package>> result = new ArrayList<Pair<Person,Package>>(candidates);
+		filter(result, context);
+		sort(result);
+		return result;
+	}
+
+	/**
+	 * Runs the plan against the maps, returning one page of the entries. Pages are in
+	 * the order of the sort, with ties broken by package ID, or in package ID order if
+	 * there is no sort. The filters are checked as the entries are read and only the
+	 * best offset + limit entries are kept in a heap, so no list of every match is
+	 * built or sorted.
+	 * @param dbMaps			Maps to query
+	 * @param after				Last entry of the previous page, to return the entries after
+	 * 							it, or null to start from the first entry
+	 * @param offset			Number of entries to skip, after the after entry
+	 * @param limit				Maximum number of entries to return
+	 * @return					New ArrayList of the entries of the page, in page order
+	 */
+	public ArrayList<Pair<Person,Package>> executePage(DBMaps dbMaps, Pair<Person,Package> after,
+			int offset, int limit) {
+		if(offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("Offset and limit must not be negative, were " +
+					offset + " and " + limit);
+		}
+		int keep = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+		if(keep == 0) {
+			return new ArrayList<Pair<Person,Package>>();
+		}
+
+		DBFilter.Context context = new DBFilter.Context(dbMaps);
+		// the heap keeps the best entries seen so far, with the worst at the head
+		PriorityQueue<Pair<Person,Package>> best =
+				new PriorityQueue<Pair<Person,Package>>(Math.min(keep, 1024), pageOrder.reversed());
+		for (Pair<Person,Package> entry: candidates(dbMaps, context)) {
+			if(after != null && pageOrder.compare(entry, after) <= 0) {
+				continue;
+			}
+			if(best.size() == keep && pageOrder.compare(entry, best.peek()) >= 0) {
+				continue;
+			}
+			if(!matches(entry, context)) {
+				continue;
+			}
+			if(best.size() == keep) {
+				best.poll();
+			}
+			best.add(entry);
+		}
+
+		ArrayList<Pair<Person,Package>> page = new ArrayList<Pair<Person,Package>>(best);
+		page.sort(pageOrder);
+		return new ArrayList<Pair<Person,Package>>(page.subList(Math.min(offset, page.size()), page.size()));
+	}
+
+	/*
+	 * Filters the candidates with a parallel stream, which keeps their order, then
+	 * sorts the matches with a parallel merge sort. Both run on the common fork join pool.
+	 */
+	@SuppressWarnings("unchecked")
+	private ArrayList<Pair<Person,Package>> executeParallel(List<Pair<Person,Package>> candidates,
+			DBFilter.Context context) {
+		Pair<Person,Package>[] matches = candidates.parallelStream()
+				.filter(entry -> matches(entry, context))
+				.toArray(Pair[]::new);
+		if(comparator != null) {
+			// the order is total, so the result does not depend on how the sort splits the array
+			Arrays.parallelSort(matches, pageOrder);
+		}
+		return new ArrayList<Pair<Person,Package>>(Arrays.asList(matches));
+	}
+	
+	/*
+	 * Returns the cheapest indexed set of entries the filter allows, which the filter
+	 * still has to be applied to
+	 */
+	private List<Pair<Person,Package>> candidates(DBMaps dbMaps, DBFilter.Context context) {
+		List<Pair<Person,Package>> candidates = filter == null ? null : filter.candidates(dbMaps, context);
+		if(candidates != null) {
+			return candidates;
+		}
+		// read the snapshot in place instead of copying it
+		return dbMaps.getSnapshot().getEntries();
+	}
+
+	/**
+	 * Removes the entries that fail the filter of the plan
+	 * @param dbEntries			Entries to filter
+	 * @param dbMaps			Maps to search person names in, or null to scan the names
+	 */
+	public void filter(ArrayList<Pair<Person,Package>> dbEntries, DBMaps dbMaps) {
+		filter(dbEntries, new DBFilter.Context(dbMaps));
+	}
+
+	/**
+	 * Sorts entries by the sorts of the plan, with ties broken by package ID
+	 * @param dbEntries			Entries to sort
+	 */
+	public void sort(ArrayList<Pair<Person,Package>> dbEntries) {
+		if(comparator != null) {
+			dbEntries.sort(pageOrder);
+		}
+	}
+
+	private void filter(ArrayList<Pair<Person,Package>> dbEntries, DBFilter.Context context) {
+		if(!hasFilters()) {
+			return;
+		}
+		// removeIf compacts the list once instead of shifting it for every removal
+		dbEntries.removeIf(entry -> !matches(entry, context));
+	}
+
+	private boolean hasFilters() {
+		return filter != null;
+	}
+
+	private boolean matches(Pair<Person,Package> entry, DBFilter.Context context) {
+		return filter == null || filter.test(entry, context);
+	}
+}
@@ -0,0 +1,54 @@
+package main.java.model.database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of compiled query plans, keyed by the filter and sort
+ * strings, so that repeated queries such as the admin table and the reminders are
+ * not parsed again. Plans resolve relative dates such as -3d each time they run, so
+ * a cached plan does not go stale at midnight.
+ *
+ * Thread safe.
+ */
+public class DBQueryCache {
+
+	private final LinkedHashMap<String,DBQuery> plans;
+
+	/**
+	 * @param capacity			Maximum number of plans to keep
+	 */
+	public DBQueryCache(final int capacity) {
+		this.plans = new LinkedHashMap<String,DBQuery>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2475286214089431263L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,DBQuery> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the plan for a filter and sort string, compiling it if it is not cached
+	 * @param filterString		String containing filters, as for DBFormat.filter
+	 * @param sortString		String containing sorts, as for DBFormat.sort
+	 * @return					Compiled plan
+	 */
+	public synchronized DBQuery get(String filterString, String sortString) {
+		String filter = filterString == null ? "" : filterString;
+		String sort = sortString == null ? "" : sortString;
+		// the length of the filter keeps different splits of the same text apart
+		String key = filter.length() + ";" + filter + sort;
+		DBQuery plan = plans.get(key);
+		if(plan == null) {
+			plan = DBQuery.compile(filter, sort);
+			plans.put(key, plan);
+		}
+		return plan;
+	}
+
+	public synchronized int size() {
+		return plans.size();
+	}
+}
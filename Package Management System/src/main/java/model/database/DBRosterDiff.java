@@ -0,0 +1,119 @@
+package main.java.model.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Objects;
+
+import main.java.util.Person;
+
+/**
+ * Difference between the current persons and a roster, used to import a roster by
+ * touching only the persons that were added, removed or changed.
+ */
+public class DBRosterDiff {
+
+	private ArrayList<Person> added;
+	private ArrayList<String> removed;
+	private ArrayList<Person> changed;
+	private int unchanged;
+	
+	// current persons not yet seen in the roster
+	private HashMap<String,Person> currentByID;
+
+	/**
+	 * Starts a diff against the current persons. Roster persons are then added one
+	 * at a time as they are read, and finish is called at the end of the roster.
+	 * @param current			Persons currently in the database
+	 */
+	public DBRosterDiff(Collection<Person> current) {
+		this.added = new ArrayList<Person>();
+		this.removed = new ArrayList<String>();
+		this.changed = new ArrayList<Person>();
+		this.currentByID = new HashMap<String,Person>(current.size() * 2);
+		for (Person person: current) {
+			currentByID.put(person.getPersonID(), person);
+		}
+	}
+
+	/**
+	 * Computes the changes needed to turn the current persons into the roster
+	 * @param current			Persons currently in the database
+	 * @param roster			Persons in the roster
+	 * @return					Added, removed and changed persons
+	 */
+	public static DBRosterDiff compute(Collection<Person> current, Collection<Person> roster) {
+		DBRosterDiff diff = new DBRosterDiff(current);
+		for (Person person: roster) {
+			diff.addRosterPerson(person);
+		}
+		return diff.finish();
+	}
+
+	/**
+	 * Compares a person in the roster with the current persons
+	 * @param person			Person read from the roster, with an ID not already added
+	 */
+	public void addRosterPerson(Person person) {
+		Person existing = currentByID.remove(person.getPersonID());
+		if(existing == null) {
+			added.add(person);
+		} else if(!samePerson(existing, person)) {
+			changed.add(person);
+		} else {
+			unchanged++;
+		}
+	}
+
+	/**
+	 * Completes the diff once the whole roster has been added, marking current
+	 * persons missing from the roster as removed
+	 * @return					This diff
+	 */
+	public DBRosterDiff finish() {
+		removed.addAll(currentByID.keySet());
+		currentByID.clear();
+		return this;
+	}
+
+	/**
+	 * Returns whether applying the diff would change nothing
+	 * @return					True if no person is added, removed or changed
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+	}
+
+	public ArrayList<Person> getAddedPersons() {
+		return added;
+	}
+
+	public ArrayList<String> getRemovedPersonIDs() {
+		return removed;
+	}
+
+	public ArrayList<Person> getChangedPersons() {
+		return changed;
+	}
+
+	public int getUnchangedCount() {
+		return unchanged;
+	}
+
+	/**
+	 * Returns a summary of the diff to show before it is applied
+	 * @return					Counts of added, removed, changed and unchanged persons
+	 */
+	public String getSummary() {
+		return added.size() + " to add\n" +
+				removed.size() + " to remove (moved to the archive)\n" +
+				changed.size() + " to update\n" +
+				unchanged + " unchanged";
+	}
+
+	private static boolean samePerson(Person a, Person b) {
+		return Objects.equals(a.getLastName(), b.getLastName()) &&
+				Objects.equals(a.getFirstName(), b.getFirstName()) &&
+				Objects.equals(a.getEmailAddress(), b.getEmailAddress());
+	}
+}
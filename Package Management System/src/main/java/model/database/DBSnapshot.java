@@ -0,0 +1,51 @@
+package main.java.model.database;
+
+import java.util.List;
+
+import main.java.util.Package;
+import main.java.util.Pair;
+import main.java.util.Person;
+
+/**
+ * Immutable view of every entry in the DBMaps at one version. DBMaps never modifies
+ * a stored person or package, it replaces them, so a snapshot shares its objects with
+ * the maps and with other snapshots instead of copying them. A snapshot can be scanned
+ * for as long as needed without locking, and never shows a half-applied change.
+ *
+ * The persons and packages of a snapshot must not be modified.
+ */
+public class DBSnapshot {
+
+	private final long version;
+	private final List<Pair<Person,Package>> entries;
+
+	/**
+	 * @param version			Version of the maps the entries were taken at
+	 * @param entries			Unmodifiable list of every entry of the maps at that version
+	 */
+	DBSnapshot(long version, List<Pair<Person,Package>> entries) {
+		this.version = version;
+		this.entries = entries;
+	}
+
+	/**
+	 * Returns the version of the maps the snapshot was taken at, which increases with
+	 * every change to the maps
+	 * @return					Version of the snapshot
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the entries of the snapshot
+	 * @return					Unmodifiable list of the entries, in no particular order
+	 */
+	public List<Pair<Person,Package>> getEntries() {
+		return entries;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+}
@@ -0,0 +1,163 @@
+package main.java.model.database;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind stage for person files. Persons changed by a mutation are queued by ID,
+ * so repeated changes to the same person coalesce into a single entry, and the queue
+ * is flushed on a background thread every interval. Compactions are run on the same
+ * thread so that they never overlap a flush.
+ */
+public class DBWriteBehind {
+
+	private Runnable flushTask;
+	private Runnable compactTask;
+	private long intervalMillis;
+
+	private ScheduledExecutorService executor;
+	private LinkedHashSet<String> dirtyPersonIDs;
+
+	// flush statistics
+	private volatile long lastFlushMillis;
+	private volatile int lastFlushCount;
+	private volatile long flushCount;
+
+	private Logger logger;
+
+	/**
+	 * @param flushTask			Task writing the files of the drained persons
+	 * @param compactTask		Task compacting the journal
+	 * @param intervalMillis	Time between flushes of the queue
+	 */
+	public DBWriteBehind(Runnable flushTask, Runnable compactTask, long intervalMillis) {
+		this.flushTask = flushTask;
+		this.compactTask = compactTask;
+		this.intervalMillis = intervalMillis;
+		this.dirtyPersonIDs = new LinkedHashSet<String>();
+		this.logger = Logger.getLogger(DBWriteBehind.class.getName());
+	}
+
+	/**
+	 * Starts flushing the queue every interval on a background thread
+	 */
+	public void start() {
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "DB write-behind");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(() -> {
+			if(getQueueDepth() > 0) {
+				run(flushTask);
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the background thread, waiting for a flush or compaction in progress.
+	 * Anything still queued must be written by the caller.
+	 */
+	public void stop() {
+		if(executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			if(!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+				logger.warning("Timed out waiting for the write-behind thread to finish");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+	}
+
+	/**
+	 * Runs a compaction on the background thread as soon as it is free. If the
+	 * background thread is not running, the compaction is left to the caller.
+	 */
+	public void requestCompaction() {
+		if(executor != null && !executor.isShutdown()) {
+			executor.execute(() -> run(compactTask));
+		}
+	}
+
+	/*
+	 * Queue operations
+	 */
+
+	/**
+	 * Queues a person whose file is behind the DBMaps
+	 * @param personID			ID of the changed person
+	 */
+	public synchronized void markDirty(String personID) {
+		dirtyPersonIDs.add(personID);
+	}
+
+	/**
+	 * Returns persons to the queue after their files failed to be written
+	 * @param personIDs			IDs of the persons to queue again
+	 */
+	public synchronized void requeue(Collection<String> personIDs) {
+		dirtyPersonIDs.addAll(personIDs);
+	}
+
+	/**
+	 * Removes and returns every queued person
+	 * @return					IDs of the persons in the queue, in the order they were queued
+	 */
+	public synchronized LinkedHashSet<String> drain() {
+		LinkedHashSet<String> drained = dirtyPersonIDs;
+		dirtyPersonIDs = new LinkedHashSet<String>();
+		return drained;
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	/**
+	 * Records the result of a flush
+	 * @param count				Number of person files written
+	 * @param millis			Time taken to write them
+	 */
+	public void recordFlush(int count, long millis) {
+		lastFlushCount = count;
+		lastFlushMillis = millis;
+		flushCount++;
+		logger.info("Flushed " + count + " person files in " + millis + " ms, " +
+				getQueueDepth() + " still queued");
+	}
+
+	public synchronized int getQueueDepth() {
+		return dirtyPersonIDs.size();
+	}
+
+	public long getLastFlushMillis() {
+		return lastFlushMillis;
+	}
+
+	public int getLastFlushCount() {
+		return lastFlushCount;
+	}
+
+	public long getFlushCount() {
+		return flushCount;
+	}
+
+	/*
+	 * Runs a task, logging failures so the scheduled flush keeps running
+	 */
+	private void run(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			logger.severe("Write-behind task failed: " + e);
+		}
+	}
+}
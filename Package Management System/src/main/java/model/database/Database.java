@@ -6,11 +6,20 @@ import main.java.util.Person;
 import main.java.util.Pair;
 import main.java.util.PropertyHandler;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 import main.java.model.IModelToViewAdapter;
@@ -25,10 +34,35 @@ public class Database {
 	
 	private DBMaps dbMaps;
 	private DBFileIO dbIO;
+	private DBJournal journal;
+	private DBArchiveIndex archiveIndex;
+	// compiled plans of recent getEntries queries
+	private DBQueryCache queryCache;
+	// number of candidate entries from which getEntries filters and sorts in parallel
+	private int parallelThreshold;
+	// memory-mapped package records, null unless database.package_store=mapped
+	private DBPackageStore packageStore;
 	
 	private String packageDirPath;
 	private String currentDirPath;
 	private String archiveDirPath;
+	private String snapshotPath;
+	
+	// whether the snapshot file reflects the person files the journal applies to
+	private boolean snapshotValid;
+	
+	// queue of persons whose files are behind the DBMaps
+	private DBWriteBehind writeBehind;
+	private int pendingMutations;
+	private int compactThreshold;
+	
+	// when journal and package records are forced to disk
+	private DBDurability durability;
+	private long groupCommitMillis;
+	private ScheduledExecutorService groupCommit;
+	
+	// held while person files are written or moved, always acquired before this
+	private final Object fileLock = new Object();
 	
 	private Logger logger;
 
@@ -40,25 +74,129 @@ public class Database {
 		this.packageDirPath = progDirPath + "/packages";
 		this.currentDirPath = packageDirPath + "/current";
 		this.archiveDirPath = packageDirPath + "/archive";
+		this.snapshotPath = packageDirPath + "/snapshot";
+		this.snapshotValid = false;
 
 		this.logger = Logger.getLogger(Database.class.getName());
 		
-		this.dbMaps = new DBMaps();
+		this.dbMaps = new DBMaps(Boolean.valueOf(PropertyHandler.getInstance().getProperty(
+				"database.package_columns", "false")));
 		this.dbIO = new DBFileIO();
+		this.journal = new DBJournal(packageDirPath + "/journal");
+		this.archiveIndex = new DBArchiveIndex(archiveDirPath);
+		this.queryCache = new DBQueryCache(Integer.valueOf(PropertyHandler.getInstance().getProperty(
+				"database.query_cache_size", "64")));
+		this.parallelThreshold = Integer.valueOf(PropertyHandler.getInstance().getProperty(
+				"database.parallel_threshold", "20000"));
+		if("mapped".equalsIgnoreCase(PropertyHandler.getInstance().getProperty(
+				"database.package_store", "journal"))) {
+			this.packageStore = new DBPackageStore(packageDirPath + "/packages.dat");
+		}
+		
+		this.writeBehind = new DBWriteBehind(this::flushPersonFiles, this::compactInBackground,
+				Long.valueOf(PropertyHandler.getInstance().getProperty(
+						"database.flush_interval_ms", "2000")));
+		this.compactThreshold = Integer.valueOf(PropertyHandler.getInstance().getProperty(
+				"database.compact_threshold", "500"));
+		
+		this.durability = DBDurability.parse(PropertyHandler.getInstance().getProperty(
+				"database.durability", "group"));
+		this.groupCommitMillis = Long.valueOf(PropertyHandler.getInstance().getProperty(
+				"database.group_commit_ms", "100"));
+		dbIO.setDurability(durability);
+		journal.setDurability(durability);
+		if(packageStore != null) {
+			packageStore.setDurability(durability);
+		}
 	}
 	
 	/**
 	 * Function whose start is controlled by the controller
 	 * 
 	 * Creates new package directories if they do not exist
-	 * Reads the current database, initializing the DBMaps
+	 * Reads the snapshot, or the current database if there is no valid snapshot,
+	 * initializing the DBMaps
+	 * Replays the journal and package store over the DBMaps and compacts them into
+	 * the person files
+	 * Starts writing changed person files in the background
 	 */
 	public void start() {
 		// check if rootFolder and subfolders exist, create if they do not.
 		FileIO.makeDirs(new String[] {packageDirPath, currentDirPath, archiveDirPath});
 		
-		// read the active package database
-		readCurrentDatabase();
+		// remove files left half written by a crash, the originals are still in place
+		removeTempFiles(currentDirPath);
+		removeTempFiles(archiveDirPath);
+		FileIO.deleteFile(snapshotPath + DBFileIO.TEMP_SUFFIX);
+		
+		archiveIndex.build();
+		if(Boolean.valueOf(PropertyHandler.getInstance().getProperty(
+				"database.watch_archive", "false"))) {
+			archiveIndex.startWatching();
+		}
+		
+		// read the active package database, falling back to the person files
+		snapshotValid = readSnapshot();
+		if(!snapshotValid) {
+			readCurrentDatabase();
+		}
+		
+		// apply any changes that were not yet compacted into the person files
+		writeBehind.requeue(journal.replay(dbMaps));
+		try {
+			journal.open();
+		} catch (IOException e) {
+			logger.severe("Failed to open journal, changes will be written to person files directly");
+		}
+		if(packageStore != null) {
+			openPackageStore();
+		}
+		compactJournal(true);
+		
+		writeBehind.start();
+		if(durability == DBDurability.GROUP) {
+			startGroupCommit();
+		}
+	}
+	
+	/**
+	 * Function whose stop is controlled by the controller
+	 * 
+	 * Stops the background writes, compacts the journal into the person files
+	 * and snapshot and closes it
+	 */
+	public void stop() {
+		writeBehind.stop();
+		if(groupCommit != null) {
+			groupCommit.shutdownNow();
+			groupCommit = null;
+		}
+		archiveIndex.stopWatching();
+		synchronized(fileLock) {
+			synchronized(this) {
+				compactJournal(true);
+				journal.close();
+				if(packageStore != null) {
+					packageStore.close();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of persons waiting for their file to be written
+	 * @return					Depth of the write-behind queue
+	 */
+	public int getWriteQueueDepth() {
+		return writeBehind.getQueueDepth();
+	}
+	
+	/**
+	 * Returns the time taken by the last background write of person files
+	 * @return					Flush latency in milliseconds
+	 */
+	public long getLastFlushMillis() {
+		return writeBehind.getLastFlushMillis();
 	}
 	
 	/**
@@ -67,17 +205,17 @@ public class Database {
 	 * @param pkg				package object to be added
 	 * @return					Success of checking in package
 	 */
-	public boolean checkInPackage(String personID, Package pkg) {
+	public synchronized boolean checkInPackage(String personID, Package pkg) {
 		// check if package already exists
 		long pkgID = pkg.getPackageID();
 		if(dbMaps.getPackage(pkgID) != null) {
 			logger.warning("Package ID: " + pkgID + " was already checked in.");
 			return false;
 		}
-		// modify current DBMaps
-		dbMaps.addPackage(personID, pkg);
-		// write new person file
-		writePersonFile(personID,currentDirPath);
+		// modify current DBMaps, storing a copy the caller cannot modify
+		dbMaps.addPackage(personID, new Package(pkg));
+		// record the change
+		afterMutation(personID, recordCheckIn(personID, pkg));
 		
 		return true;
 	}
@@ -87,20 +225,45 @@ public class Database {
 	 * @param pkgID				Package to check out
 	 * @return					Success of checking out package
 	 */
-	public boolean checkOutPackage(long pkgID) {
+	public synchronized boolean checkOutPackage(long pkgID) {
 		// modify package checkOut date
 		Package pkg = dbMaps.getPackage(pkgID);
-		if(pkg.getCheckOutDate() != null) {
+		if(pkg == null) {
+			logger.warning("Package ID: " + pkgID + " to be checked out not found.");
+			return false;
+		} else if(pkg.getCheckOutDate() != null) {
 			logger.info("Package ID: " + pkgID + " was already checked out.");		
 			return false;
 		} 		
 
-		// note that this automatically edits the package in DBMaps
-		pkg.setCheckOutDate(new Date());
+		// check out the package in DBMaps
+		Date checkOutDate = new Date();
+		dbMaps.checkOutPackage(pkgID, checkOutDate);
+		
+		// record the change
+		afterMutation(dbMaps.getOwnerID(pkgID), recordCheckOut(pkgID, checkOutDate));
 		
-		// write to file
-		writePersonFile(dbMaps.getOwnerID(pkgID),currentDirPath);
+		return true;
+	}
+	
+	/**
+	 * Marks the notification email of a package as sent. Only the flag of the stored
+	 * package is changed, so changes made while the email was being sent, such as
+	 * the package being checked out, are kept.
+	 * @param pkgID				ID of the package
+	 * @return					Success of marking the package
+	 */
+	public synchronized boolean markNotificationSent(long pkgID) {
+		Package pkg = dbMaps.getPackage(pkgID);
+		if(pkg == null) {
+			logger.warning("Package ID: " + pkgID + " to be marked notified not found.");
+			return false;
+		} else if(pkg.isNotificationSent()) {
+			return true;
+		}
 		
+		dbMaps.setNotificationSent(pkgID);
+		afterMutation(dbMaps.getOwnerID(pkgID), recordNotificationSent(pkgID));
 		return true;
 	}
 	
@@ -110,16 +273,16 @@ public class Database {
 	 * @param pkg 				Package object containing new attributes for the package
 	 * @return					Success of editing the package
 	 */
-	public boolean editPackage(Package pkg) {
+	public synchronized boolean editPackage(Package pkg) {
 		long pkgID = pkg.getPackageID();
 		if(dbMaps.getPackage(pkgID) == null) {
 			logger.warning("Package (ID: " + pkgID + ") to be edited by database not found.");
 			return false;
 		}
 		
-		// edit person in database maps and write to file
-		dbMaps.editPackage(pkg);
-		writePersonFile(dbMaps.getOwnerID(pkgID), currentDirPath);
+		// edit package in database maps and record the change
+		dbMaps.editPackage(new Package(pkg));
+		afterMutation(dbMaps.getOwnerID(pkgID), recordEditPackage(pkg));
 		return true;
 	}
 
@@ -127,20 +290,30 @@ public class Database {
 	 * Returns a list of filtered and sorted packages, 
 	 * according to the filter and sort string
 	 * 
-	 * filter should be written with all filters in the format
-	 * 		field1=value1:field2=value2:field3=value3
-	 * etc., where fields and values are defined as follows
+	 * filter is an expression of filters in the format field=value, combined
+	 * with | (or), : (and), ! (not) and parentheses, as described in DBFormat.filter
 	 * 	Fields with accompanying values:
 	 * 		checked_in			
 	 * 			<boolean>		Include only packages that have not been checked out
 	 * 		person_name
 	 * 			<String>		User input string to search Person firstName and LastName		
+	 * 		person_id
+	 * 			<String>		Exact personID of the owner
+	 * 		package_id
+	 * 			<long>			Package ID, or range from..to of package IDs
+	 * 		comment
+	 * 			<String>		Whole comment, or comment~value for comments containing value
+	 * 		notification_sent
+	 * 			<boolean>		Whether the notification email has been sent
 	 * 		on_date
 	 * 			<String>		YYYYMMDD Date to get entries checked-in on
 	 *		before_date			
 	 * 			<String>		YYYYMMDD Date to get entries checked-in before
 	 * 		after_date
 	 * 			<String>		YYYYMMDD Date get entries checked-in after
+	 * 		out_on_date, out_before_date, out_after_date
+	 * 			<String>		YYYYMMDD Date to get entries checked-out on, before or after
+	 * 	Dates can also be today, or -<n>d or -<n>w for n days or weeks ago
 	 * 
 	 * sort should be written with highest priority sorts first
 	 * in the format
@@ -163,46 +336,59 @@ public class Database {
 	 */
 	
 	public ArrayList<Pair<Person,Package>> getEntries(String filter, String sort) {
-		
-		// get all of the entries from the database
-		ArrayList<Pair<Person,Package>> result = dbMaps.getAllEntries();
-		DBFormat.filter(result, filter);
-		DBFormat.sort(result, sort);
-		
-		return result;
+		// plans are compiled once per filter and sort string, then reused
+		return queryCache.get(filter, sort).execute(dbMaps, parallelThreshold);
 	}
 	
 	/**
-	 * Returns a list of all people whose name contains searchString
-	 * Uses the java String contains function
+	 * Returns one page of the filtered and sorted entries, as for getEntries. Ties in
+	 * the sort are broken by package ID, so pages do not overlap.
+	 * @param filter			String containing filtering options
+	 * @param sort				String containing sort options
+	 * @param offset			Number of entries to skip
+	 * @param limit				Maximum number of entries to return
+	 * @return					Entries of the page, in order
+	 */
+	public ArrayList<Pair<Person,Package>> getEntries(String filter, String sort, int offset, int limit) {
+		return queryCache.get(filter, sort).executePage(dbMaps, null, offset, limit);
+	}
+	
+	/**
+	 * Returns the page of filtered and sorted entries that follows an entry, as for
+	 * getEntries. Unlike an offset this stays correct when entries are added or
+	 * removed between pages, and does not go through the skipped entries again.
+	 * @param filter			String containing filtering options
+	 * @param sort				String containing sort options
+	 * @param after				Last entry of the previous page
+	 * @param limit				Maximum number of entries to return
+	 * @return					Entries of the page, in order
+	 */
+	public ArrayList<Pair<Person,Package>> getEntriesAfter(String filter, String sort, 
+			Pair<Person,Package> after, int limit) {
+		return queryCache.get(filter, sort).executePage(dbMaps, after, 0, limit);
+	}
+	
+	/**
+	 * Returns a list of all people whose name or personID contains searchString,
+	 * ignoring case, using the name index of the DBMaps
 	 * @param searchString		String containing user input search
 	 * @return					ArrayList of people with searchString in their
-	 * 							lastName, firstName representation
+	 * 							lastName, firstName or firstName lastName representation
+	 * 							or their personID
 	 */
 	public ArrayList<Person> getPersonList(String searchString) {
-		ArrayList<Person> result = new ArrayList<Person>();
-		ArrayList<Person> allPersons = getAllCurrentPersons();
-		
-		//convert searchString to lower case for searching
-		//internet says this is locale specific, beware
-		searchString = searchString.toLowerCase();
-		
-		for (Person person: allPersons) {
-			if(person.getLastFirstName().toLowerCase().contains(searchString)) {
-				result.add(person);
-			}
-		}
-		
-		return result;
+		return dbMaps.searchPersons(searchString);
 	}
 	
 	/**
-	 * Returns a package from the package ID
+	 * Returns a package from the package ID. The package is a copy, changes to it
+	 * only take effect through editPackage.
 	 * @param pkgID				ID of package to retrieve
-	 * @return					Package object with given ID
+	 * @return					Package object with given ID, or null if there is none
 	 */
 	public Package getPackage(long pkgID) {
-		return dbMaps.getPackage(pkgID);
+		Package pkg = dbMaps.getPackage(pkgID);
+		return pkg == null ? null : new Package(pkg);
 	}
 	
 	/**
@@ -214,6 +400,63 @@ public class Database {
 		return dbMaps.getPerson(personID);
 	}
 	
+	/**
+	 * Returns the largest package ID in the current database
+	 * @return					Largest package ID, or 0 if there are no packages
+	 */
+	public long getLastPackageID() {
+		long last = 0;
+		for (long pkgID: dbMaps.getAllPackageIDs()) {
+			last = Math.max(last, pkgID);
+		}
+		return last;
+	}
+	
+	/**
+	 * Returns the number of packages waiting on the shelf, checked in but not out
+	 * @return					Number of waiting packages
+	 */
+	public int getShelfOccupancy() {
+		return dbMaps.getActivePackageCount();
+	}
+	
+	/**
+	 * Returns the number of packages a person has waiting
+	 * @param personID			ID of the person
+	 * @return					Number of waiting packages
+	 */
+	public int getWaitingCount(String personID) {
+		return dbMaps.getWaitingCount(personID);
+	}
+	
+	/**
+	 * Returns the number of packages every person with any has waiting
+	 * @return					New map of personID to number of waiting packages
+	 */
+	public HashMap<String,Integer> getWaitingCounts() {
+		return dbMaps.getWaitingCounts();
+	}
+	
+	/**
+	 * Returns the number of packages checked in on a day, including those checked
+	 * out since
+	 * @param day				Local date
+	 * @return					Number of check ins
+	 */
+	public int getCheckInCount(LocalDate day) {
+		return dbMaps.getCheckInCount(day);
+	}
+	
+	/**
+	 * Returns the number of packages checked in within an hour, including those
+	 * checked out since
+	 * @param hour				Any local time within the hour
+	 * @return					Number of check ins
+	 */
+	public int getCheckInCount(LocalDateTime hour) {
+		return dbMaps.getCheckInCount(hour);
+	}
+	
 	/**
 	 * Returns a person from a pkgID
 	 * @param pkgID				ID of the package to retrieve the person
@@ -236,33 +479,37 @@ public class Database {
 	 * @return					Success of adding the person
 	 */
 	public boolean addPerson(Person person) {
-		//Check if person is already in the system
-		String personID = person.getPersonID();
-		if(dbMaps.getPerson(personID) != null) {
-			logger.warning("Person (ID: " + personID + ") to be added by database already exists.");
-			return false;
-		} 
-		
-		//Check if person is in the archive
-		HashSet<String> archiveFileNames = new HashSet<String>(FileIO.getFileNamesFromDirectory(archiveDirPath));
-		HashSet<String> archivePersonIDs = archiveFileNames;
-		
-		//If person file is in archive, add file to DBMaps and delete archive file
-		if(archivePersonIDs.contains(personID)) {
-			String archiveFile = archiveDirPath + '/' + personID;
-			addPersonPackagesFromFile(archiveFile);
-			FileIO.deleteFile(archiveFile);
-			dbMaps.editPerson(person); //edit the person instead of adding
-		} else {
-			//If not in the archive, add new person to DBMaps
-			dbMaps.addPerson(person);
+		// person files are written and moved, so hold the file lock as well
+		synchronized(fileLock) {
+			synchronized(this) {
+				//Check if person is already in the system
+				String personID = person.getPersonID();
+				if(dbMaps.getPerson(personID) != null) {
+					logger.warning("Person (ID: " + personID + ") to be added by database already exists.");
+					return false;
+				} 
+
+				// person files are about to be moved, so bring them up to date first
+				compactJournal(false);
+				invalidateSnapshot();
+
+				//If person file is in archive, add file to DBMaps and delete archive file
+				String archiveFile = archiveDirPath + '/' + personID;
+				if(archiveIndex.contains(personID) && addPersonPackagesFromFile(archiveFile)) {
+					FileIO.deleteFile(archiveFile);
+					archiveIndex.remove(personID);
+					dbMaps.editPerson(person); //edit the person instead of adding
+				} else {
+					//If not in the archive, add new person to DBMaps
+					dbMaps.addPerson(person);
+				}
+
+				//Write the new file
+				writePersonFile(personID, currentDirPath);
+
+				return true;
+			}
 		}
-		
-		//Write the new file
-		writePersonFile(personID, currentDirPath);
-		
-		return true;
-		 
 	}
 	
 	/**
@@ -271,16 +518,16 @@ public class Database {
 	 * @param newPerson			Person object containing new attributes for the person
 	 * @return					Success of editing the person
 	 */
-	public boolean editPerson(Person newPerson) {
+	public synchronized boolean editPerson(Person newPerson) {
 		String personID = newPerson.getPersonID();
 		if(dbMaps.getPerson(personID) == null) {
 			logger.warning("Person (ID: " + personID + ") to be edited by database not found.");
 			return false;
 		}
 		
-		// edit person in database maps and write to file
+		// edit person in database maps and record the change
 		dbMaps.editPerson(newPerson);
-		writePersonFile(personID, currentDirPath);
+		afterMutation(personID, journal.logEditPerson(newPerson));
 		return true;
 	}
 	
@@ -291,19 +538,29 @@ public class Database {
 	 * @return					Success of deleting the person
 	 */
 	public boolean deletePerson(String personID) {
-		if(dbMaps.getPerson(personID) == null) {
-			logger.warning("Person (ID: " + personID + ") to be deleted by database not found.");
-			return false;
+		// person files are written and moved, so hold the file lock as well
+		synchronized(fileLock) {
+			synchronized(this) {
+				if(dbMaps.getPerson(personID) == null) {
+					logger.warning("Person (ID: " + personID + ") to be deleted by database not found.");
+					return false;
+				}
+
+				// person files are about to be moved, so bring them up to date first
+				compactJournal(false);
+				invalidateSnapshot();
+
+				// move person file to the archive 
+				if(writePersonFile(personID, archiveDirPath)) {
+					archiveIndex.add(personID);
+				}
+				FileIO.deleteFile(currentDirPath + '/' + personID);
+				// remove person from DBMaps - must be after reading and writing file
+				dbMaps.deletePerson(personID);
+
+				return true;
+			}
 		}
-		
-		// move person file to the archive 
-		writePersonFile(personID, archiveDirPath);
-		FileIO.deleteFile(currentDirPath + '/' + personID);
-		// remove person from DBMaps - must be after reading and writing file
-		dbMaps.deletePerson(personID);
-		
-		return true;
-		
 	}
 	
 	/* Return a list of all persons in the current directory */
@@ -317,41 +574,330 @@ public class Database {
 	}
 	
 	/*
-	 * Writes a json file containing a person object and all of its associated package objects
-	 * to the directory indicated by baseDirectory
+	 * Records a package mutation in the package store if it is in use, otherwise
+	 * in the journal. Packages of owners whose ID does not fit in a store record are
+	 * always journaled. Returns the success of recording the change.
 	 */
-	private void writePersonFile(String personID, String baseDirectory) {
-		// create the person and package pair from the DBMaps object
+	private boolean recordCheckIn(String personID, Package pkg) {
+		if(packageStore != null && DBPackageStore.fitsOwner(personID)) {
+			return packageStore.put(personID, pkg);
+		}
+		return journal.logCheckIn(personID, pkg);
+	}
+	
+	private boolean recordCheckOut(long pkgID, Date checkOutDate) {
+		if(packageStore != null) {
+			if(packageStore.setCheckOutDate(pkgID, checkOutDate)) {
+				return true;
+			}
+			// packages restored from the archive do not have a record yet
+			String ownerID = dbMaps.getOwnerID(pkgID);
+			if(DBPackageStore.fitsOwner(ownerID)) {
+				return packageStore.put(ownerID, dbMaps.getPackage(pkgID));
+			}
+		}
+		return journal.logCheckOut(pkgID, checkOutDate);
+	}
+	
+	private boolean recordNotificationSent(long pkgID) {
+		if(packageStore != null) {
+			if(packageStore.setNotificationSent(pkgID)) {
+				return true;
+			}
+			String ownerID = dbMaps.getOwnerID(pkgID);
+			if(DBPackageStore.fitsOwner(ownerID)) {
+				return packageStore.put(ownerID, dbMaps.getPackage(pkgID));
+			}
+		}
+		return journal.logNotificationSent(pkgID);
+	}
+	
+	private boolean recordEditPackage(Package pkg) {
+		if(packageStore != null) {
+			if(packageStore.update(pkg)) {
+				return true;
+			}
+			String ownerID = dbMaps.getOwnerID(pkg.getPackageID());
+			if(DBPackageStore.fitsOwner(ownerID)) {
+				return packageStore.put(ownerID, pkg);
+			}
+		}
+		return journal.logEditPackage(pkg);
+	}
+	
+	/*
+	 * Opens the package store and applies any package records that are newer than the
+	 * DBMaps. Packages missing from the store are added to it. If the store cannot be
+	 * opened, package changes are journaled instead.
+	 */
+	private void openPackageStore() {
+		try {
+			packageStore.open();
+		} catch (IOException e) {
+			logger.severe("Failed to open package store, package changes will be journaled instead");
+			packageStore = null;
+			return;
+		}
+		
+		for (Pair<String,Package> record: packageStore.readAll()) {
+			String ownerID = record.first;
+			Package stored = record.second;
+			
+			// skip packages of archived persons, their archive file is up to date
+			if(dbMaps.getPerson(ownerID) == null) {
+				continue;
+			}
+			
+			Package pkg = dbMaps.getPackage(stored.getPackageID());
+			if(pkg == null) {
+				dbMaps.addPackage(ownerID, stored);
+				writeBehind.markDirty(ownerID);
+				continue;
+			}
+			
+			if(stored.getComment() == null) {
+				stored.setComment(pkg.getComment()); // comment did not fit in the record
+			}
+			if(!samePackageState(pkg, stored)) {
+				dbMaps.editPackage(stored);
+				writeBehind.markDirty(ownerID);
+			}
+		}
+		
+		// make sure every current package has a record to update in place, except
+		// those of owners with IDs too long for a record, which are journaled
+		for (long pkgID: dbMaps.getAllPackageIDs()) {
+			String ownerID = dbMaps.getOwnerID(pkgID);
+			if(!packageStore.contains(pkgID) && DBPackageStore.fitsOwner(ownerID)) {
+				packageStore.put(ownerID, dbMaps.getPackage(pkgID));
+			}
+		}
+		packageStore.force();
+	}
+	
+	/*
+	 * Returns whether two versions of a package have the same mutable attributes
+	 */
+	private static boolean samePackageState(Package pkg1, Package pkg2) {
+		Date checkOut1 = pkg1.getCheckOutDate();
+		Date checkOut2 = pkg2.getCheckOutDate();
+		return (checkOut1 == null ? checkOut2 == null : checkOut1.equals(checkOut2)) &&
+				pkg1.isNotificationSent() == pkg2.isNotificationSent() &&
+				(pkg1.getComment() == null ? pkg2.getComment() == null : 
+					pkg1.getComment().equals(pkg2.getComment()));
+	}
+	
+	/*
+	 * Queues a person's file to be written in the background after a mutation,
+	 * requesting a compaction once the number of mutations since the last compaction
+	 * reaches the threshold. If the mutation could not be journaled, a compaction is
+	 * requested immediately so the change reaches the person file as soon as possible.
+	 * Must be called while holding this.
+	 */
+	private void afterMutation(String personID, boolean journaled) {
+		writeBehind.markDirty(personID);
+		pendingMutations++;
+		
+		if(!journaled) {
+			invalidateSnapshot();
+		}
+		if(!journaled || pendingMutations >= compactThreshold) {
+			pendingMutations = 0;
+			writeBehind.requestCompaction();
+		}
+	}
+	
+	/*
+	 * Writes the files of the persons queued by the write-behind stage. The person and
+	 * package lists are copied while holding this, and written with only the file lock
+	 * held so that mutations are not blocked by the disk.
+	 */
+	private void flushPersonFiles() {
+		synchronized(fileLock) {
+			long startTime = System.currentTimeMillis();
+			ArrayList<Pair<Person,ArrayList<Package>>> dbPairs = 
+					new ArrayList<Pair<Person,ArrayList<Package>>>();
+			synchronized(this) {
+				for (String personID: writeBehind.drain()) {
+					// persons deleted since the change no longer have a current file
+					if(dbMaps.getPerson(personID) != null) {
+						dbPairs.add(getPersonPackages(personID));
+					}
+				}
+			}
+			
+			ArrayList<String> failed = new ArrayList<String>();
+			for (Pair<Person,ArrayList<Package>> dbPair: dbPairs) {
+				if(!writePersonFile(dbPair, currentDirPath)) {
+					failed.add(dbPair.first.getPersonID());
+				}
+			}
+			writeBehind.requeue(failed);
+			writeBehind.recordFlush(dbPairs.size() - failed.size(), 
+					System.currentTimeMillis() - startTime);
+		}
+	}
+	
+	/*
+	 * Compaction run by the write-behind stage
+	 */
+	private void compactInBackground() {
+		synchronized(fileLock) {
+			synchronized(this) {
+				compactJournal(true);
+			}
+		}
+	}
+	
+	/*
+	 * Rewrites the file of every person queued since the last flush and truncates
+	 * the journal. The journal is kept if any of the files fail to be written.
+	 * 
+	 * If writeSnapshot is set, the snapshot is rewritten so that it matches the person
+	 * files, otherwise it is invalidated since truncating the journal makes it stale.
+	 * Must be called while holding the file lock and this.
+	 */
+	private void compactJournal(boolean writeSnapshot) {
+		LinkedHashSet<String> dirtyPersonIDs = writeBehind.drain();
+		if(journal.getRecordCount() == 0 && dirtyPersonIDs.isEmpty() && 
+				(snapshotValid || !writeSnapshot)) {
+			return;
+		}
+		
+		boolean success = true;
+		for (String personID: dirtyPersonIDs) {
+			// persons deleted since the change no longer have a current file
+			if(dbMaps.getPerson(personID) != null) {
+				success &= writePersonFile(personID, currentDirPath);
+			}
+		}
+		if(!success) {
+			logger.warning("Failed to compact journal, it will be kept until the next compaction");
+			writeBehind.requeue(dirtyPersonIDs);
+			return;
+		}
+		
+		if(writeSnapshot) {
+			writeSnapshot();
+		} else {
+			invalidateSnapshot();
+		}
+		
+		pendingMutations = 0;
+		try {
+			journal.truncate();
+		} catch (IOException e) {
+			logger.warning("Failed to truncate journal");
+		}
+	}
+	
+	/*
+	 * Writes a single file containing every person and package in the DBMaps
+	 */
+	private void writeSnapshot() {
+		long startTime = System.currentTimeMillis();
+		ArrayList<String> personIDs = dbMaps.getAllPersonIDs();
+		ArrayList<Pair<Person,ArrayList<Package>>> dbPairs = 
+				new ArrayList<Pair<Person,ArrayList<Package>>>(personIDs.size());
+		for (String personID: personIDs) {
+			dbPairs.add(getPersonPackages(personID));
+		}
+		
+		try {
+			dbIO.writeSnapshotFile(dbPairs, snapshotPath);
+			snapshotValid = true;
+			logger.info("Wrote snapshot of " + dbPairs.size() + " persons in " + 
+					(System.currentTimeMillis() - startTime) + " ms");
+		} catch (IOException e) {
+			logger.warning("Failed to write snapshot " + snapshotPath);
+			// the previous snapshot is stale once the journal is truncated
+			FileIO.deleteFile(snapshotPath);
+			snapshotValid = false;
+		}
+	}
+	
+	/*
+	 * Reads the snapshot file into the DBMaps, returning false if there is
+	 * no snapshot or it could not be read
+	 */
+	private boolean readSnapshot() {
+		if(!new File(snapshotPath).exists()) {
+			return false;
+		}
+		
+		long startTime = System.currentTimeMillis();
+		ArrayList<Pair<Person,ArrayList<Package>>> dbPairs;
+		try {
+			dbPairs = dbIO.readSnapshotFile(snapshotPath);
+		} catch (IOException e) {
+			logger.warning("Failed to read snapshot " + snapshotPath + ", reading person files instead");
+			return false;
+		}
+		
+		for (Pair<Person,ArrayList<Package>> dbPair: dbPairs) {
+			addPersonPackages(dbPair);
+		}
+		logger.info("Loaded snapshot of " + dbPairs.size() + " persons in " + 
+				(System.currentTimeMillis() - startTime) + " ms");
+		return true;
+	}
+	
+	/*
+	 * Deletes the snapshot once it no longer matches the person files, so that the
+	 * next start up reads the person files instead
+	 */
+	private void invalidateSnapshot() {
+		if(snapshotValid) {
+			FileIO.deleteFile(snapshotPath);
+			snapshotValid = false;
+		}
+	}
+	
+	/*
+	 * Creates the person and package pair for a person from the DBMaps object
+	 */
+	private Pair<Person,ArrayList<Package>> getPersonPackages(String personID) {
 		Person person = dbMaps.getPerson(personID);
-		ArrayList<Long> packageIDs = dbMaps.getOwnedPackageIDs(personID);
-		ArrayList<Package> pkgList = new ArrayList<Package>();
+		long[] packageIDs = dbMaps.getOwnedPackageIDs(personID);
+		ArrayList<Package> pkgList = new ArrayList<Package>(packageIDs.length);
 		for (long pkgID: packageIDs) {
 			pkgList.add(dbMaps.getPackage(pkgID));
 		}
 		
-		Pair<Person,ArrayList<Package>> dbPair = 
-				new Pair<Person,ArrayList<Package>>(person,pkgList);
-		
+		return new Pair<Person,ArrayList<Package>>(person,pkgList);
+	}
+	
+	/*
+	 * Writes a file containing a person object and all of its associated package objects
+	 * to the directory indicated by baseDirectory, returning the success of the write
+	 */
+	private boolean writePersonFile(String personID, String baseDirectory) {
+		return writePersonFile(getPersonPackages(personID), baseDirectory);
+	}
+	
+	private boolean writePersonFile(Pair<Person,ArrayList<Package>> dbPair, String baseDirectory) {
 		//write Pair object to file
-		String fileName = baseDirectory + '/' + personID;
+		String fileName = baseDirectory + '/' + dbPair.first.getPersonID();
 		try {
-			dbIO.writeDatabaseJSONFile(dbPair, fileName);
+			dbIO.writeDatabaseFile(dbPair, fileName);
+			return true;
 		} catch (FileNotFoundException e) {
 			logger.warning("Failed to find file: " + fileName);	
 		}catch(IOException e) {
 			logger.warning("Failed to write " + fileName);
 			e.printStackTrace();
 		}
+		return false;
 	}
 	
 	/*
-	 * Reads a json file containing a person object and all of its associated package objects
+	 * Reads a file containing a person object and all of its associated package objects
 	 * from fileName into a Pair object
 	 */
 	private Pair<Person,ArrayList<Package>> readPersonFile(String fileName) {
 		Pair<Person,ArrayList<Package>> dbPair = null;
 		try {
-			 dbPair = dbIO.readDatabaseJSONFile(fileName);
+			 dbPair = dbIO.readDatabaseFile(fileName);
 		} catch (FileNotFoundException e) {
 			logger.warning("Failed to find file: " + fileName);	
 		} catch (IOException e) {
@@ -363,23 +909,84 @@ public class Database {
 		
 	}
 	
+	/*
+	 * Forces the journal and package store to disk every database.group_commit_ms, so
+	 * mutations share one sync instead of paying for one each
+	 */
+	private void startGroupCommit() {
+		groupCommit = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "DB group commit");
+			thread.setDaemon(true);
+			return thread;
+		});
+		groupCommit.scheduleWithFixedDelay(() -> {
+			journal.sync();
+			if(packageStore != null) {
+				packageStore.force();
+			}
+		}, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	private void removeTempFiles(String dirPath) {
+		for (String fileName: FileIO.getFileNamesFromDirectory(dirPath)) {
+			if(fileName.endsWith(DBFileIO.TEMP_SUFFIX)) {
+				logger.warning("Removing incomplete file " + fileName);
+				FileIO.deleteFile(dirPath + '/' + fileName);
+			}
+		}
+	}
+	
 	/*
 	 * Initializes the current database by reading all of the files in the current directory
 	 * and placing all of their attributes into the database maps
 	 */
 	private void readCurrentDatabase() {
+		long startTime = System.currentTimeMillis();
 		ArrayList<String> currentFileNames = FileIO.getFileNamesFromDirectory(currentDirPath);
-		for (String fileName: currentFileNames) {
-			addPersonPackagesFromFile(currentDirPath+'/'+fileName);
+		final int total = currentFileNames.size();
+		final AtomicInteger loaded = new AtomicInteger();
+		
+		// decode and merge the person files concurrently, the maps do their own locking
+		currentFileNames.parallelStream().forEach(fileName -> {
+			Pair<Person,ArrayList<Package>> dbPair = readPersonFile(currentDirPath + '/' + fileName);
+			if(dbPair != null) {
+				addPersonPackages(dbPair);
+			}
+			reportLoadProgress(loaded.incrementAndGet(), total);
+		});
+		
+		logger.info("Loaded " + total + " person files in " + 
+				(System.currentTimeMillis() - startTime) + " ms");
+	}
+	
+	/*
+	 * Logs the progress of loading the current database every 10 percent
+	 */
+	private void reportLoadProgress(int loaded, int total) {
+		int step = Math.max(total / 10, 1);
+		if(loaded % step == 0 || loaded == total) {
+			logger.info("Loading database: " + loaded + "/" + total + " person files");
 		}
 	}
 	
 	/*
 	 * Reads and adds all of the person and package information from the fileName to database maps
+	 * Returns false if the file could not be read
 	 * Note: *Does not rewrite the file, make sure that calling function will write file*
 	 */
-	private void addPersonPackagesFromFile(String fileName) {
+	private boolean addPersonPackagesFromFile(String fileName) {
 		Pair<Person,ArrayList<Package>> dbPair = readPersonFile(fileName);
+		if(dbPair == null) {
+			return false;
+		}
+		addPersonPackages(dbPair);
+		return true;
+	}
+	
+	/*
+	 * Adds a person and all of their packages to the database maps
+	 */
+	private void addPersonPackages(Pair<Person,ArrayList<Package>> dbPair) {
 		Person person = dbPair.first;
 		ArrayList<Package> packages = dbPair.second;
 		
@@ -389,29 +996,97 @@ public class Database {
 		}
 	}
 		 
+	/**
+	 * Imports a roster of persons from a CSV file, adding persons new to the roster,
+	 * archiving persons missing from it and updating persons whose details changed.
+	 * Unchanged persons and their files are not touched. The changes are summarized
+	 * and confirmed with the user before they are applied.
+	 * @param filePath			Path of the CSV roster
+	 * @return					Success of importing the roster
+	 */
 	public boolean importPersonsFromCSV(String filePath) {
-		// Get a list of all people in the database
-		ArrayList<String> currentPersons = dbMaps.getAllPersonIDs();
+		DBRosterDiff diff = diffPersonsFromCSV(filePath);
+		if(diff == null) {
+			return false;
+		}
 		
-		// Remove everyone from the database
-		for(String personID: currentPersons) {
-			deletePerson(personID);
+		if(viewAdaptor != null) {
+			if(diff.isEmpty()) {
+				viewAdaptor.displayMessage("The roster is already up to date.\n" +
+						diff.getSummary(), "Import Roster");
+				return true;
+			}
+			String[] options = {"Import", "Cancel"};
+			if(!viewAdaptor.getBooleanInput("Importing the roster will make the following changes:\n" +
+					diff.getSummary(), "Import Roster", options)) {
+				return false;
+			}
 		}
 		
-		// Get a list of all people in the file
-		ArrayList<Person> csvPersons = new ArrayList<Person>();
+		applyRosterDiff(diff);
+		return true;
+	}
+	
+	/**
+	 * Reads a CSV roster and computes the changes importing it would make, without
+	 * applying them
+	 * @param filePath			Path of the CSV roster
+	 * @return					Changes to the current persons, null if the file could not be read
+	 */
+	public DBRosterDiff diffPersonsFromCSV(String filePath) {
+		DBRosterDiff diff;
+		synchronized(this) {
+			diff = new DBRosterDiff(dbMaps.getAllPersons());
+		}
+		// compare each person as it is read instead of holding the roster
+		if(!readPersonsCSV(filePath, diff::addRosterPerson)) {
+			return null;
+		}
+		return diff.finish();
+	}
+	
+	/**
+	 * Applies roster changes to the database
+	 * @param diff				Changes computed by diffPersonsFromCSV
+	 */
+	public void applyRosterDiff(DBRosterDiff diff) {
+		long startTime = System.currentTimeMillis();
+		synchronized(fileLock) {
+			synchronized(this) {
+				for (String personID: diff.getRemovedPersonIDs()) {
+					deletePerson(personID);
+				}
+				for (Person person: diff.getChangedPersons()) {
+					editPerson(person);
+				}
+				for (Person person: diff.getAddedPersons()) {
+					addPerson(person);
+				}
+			}
+		}
+		logger.info("Imported roster in " + (System.currentTimeMillis() - startTime) + 
+				" ms:\n" + diff.getSummary());
+	}
+	
+	/*
+	 * Reads the persons in a CSV roster, passing each to a consumer and reporting
+	 * errors to the user. Returns false if the file could not be read.
+	 */
+	private boolean readPersonsCSV(String filePath, Consumer<Person> consumer) {
+		boolean success = false;
 		ArrayList<Pair<String,String>> failedToRead = new ArrayList<Pair<String,String>>();
 		try {
-			csvPersons = dbIO.readDatabaseCSVFile(filePath,failedToRead);
+			dbIO.readDatabaseCSVFile(filePath, failedToRead, consumer);
+			success = true;
 		} catch (FileNotFoundException e) {
 			logger.severe("Failed to find file: " + filePath);
-			viewAdaptor.displayError("Failed to find file: " + filePath, "Cannot Find File");
+			displayError("Failed to find file: " + filePath, "Cannot Find File");
 		} catch (IOException e) {
 			logger.severe("Failed to read file:" + filePath);
-			viewAdaptor.displayError("Failed to read file: " + filePath, "Error");
+			displayError("Failed to read file: " + filePath, "Error");
 		} catch (FileFormatException e) {
 			logger.warning("Invalid csv file format for file: " + filePath);
-			viewAdaptor.displayError("Invalid file format for file: " + filePath +
+			displayError("Invalid file format for file: " + filePath +
 					"\n Please ensure the file has a header and follows the format: " +
 					"\n Last Name, First Name, Email, ID", "Invalid File Format");
 		}
@@ -425,15 +1100,18 @@ public class Database {
 				errorMsg = errorMsg + error.first + " - " + error.second + '\n';
 			}
 			logger.warning(errorMsg);
-			viewAdaptor.displayWarning(errorMsg, "Warning");
-		}	
-		
-		// Add all people to the database
-		for(Person person: csvPersons) {
-			addPerson(person);
+			if(viewAdaptor != null) {
+				viewAdaptor.displayWarning(errorMsg, "Warning");
+			}
 		}
 		
-		return true;
+		return success;
+	}
+	
+	private void displayError(String error, String title) {
+		if(viewAdaptor != null) {
+			viewAdaptor.displayError(error, title);
+		}
 	}
 	
 	public static void main(String[] args) {
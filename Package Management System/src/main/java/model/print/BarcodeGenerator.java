@@ -50,7 +50,8 @@ public class BarcodeGenerator {
         bean.setBarHeight(20);
         bean.doQuietZone(false);
 		bean.setFontSize(4);
-        bean.setPattern("____-__-__ __:__:__");
+        // package IDs are the check in time, then the desk and sequence number
+        bean.setPattern(msg.length() > 14 ? "____-__-__ __:__:__ _-___" : "____-__-__ __:__:__");
 
         boolean antiAlias = false;
         int orientation = 0;
@@ -0,0 +1,129 @@
+package main.java.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Streaming reader of RFC 4180 CSV records. Fields may be quoted, in which case
+ * they can contain commas, line breaks and quotes escaped as "". Lines may end in
+ * CRLF or LF, and a byte order mark at the start of the input is skipped.
+ *
+ * Records are read one at a time, so a file never needs to be held in memory.
+ */
+public class CSVReader implements Closeable {
+
+	private static final char BOM = '\uFEFF';
+	private static final int BUFFER_SIZE = 8192;
+
+	private Reader reader;
+	private char[] buffer;
+	private int position;
+	private int limit;
+	private boolean started;
+
+	private int lineNumber;
+
+	public CSVReader(Reader reader) {
+		this.reader = reader;
+		this.buffer = new char[BUFFER_SIZE];
+		this.lineNumber = 1;
+	}
+
+	/**
+	 * Reads the next record
+	 * @return					Fields of the record, or null at the end of the input
+	 * @throws IOException		If the input cannot be read or ends inside a quoted field
+	 */
+	public String[] readRecord() throws IOException {
+		if(!started) {
+			started = true;
+			if(peek() == BOM) {
+				position++;
+			}
+		}
+		if(peek() < 0) {
+			return null;
+		}
+
+		ArrayList<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		while(true) {
+			int c = next();
+			if(quoted) {
+				if(c < 0) {
+					throw new IOException("Unterminated quoted field on line " + lineNumber);
+				} else if(c == '"') {
+					if(peek() == '"') {
+						position++;
+						field.append('"');
+					} else {
+						quoted = false;
+					}
+				} else {
+					if(c == '\n') {
+						lineNumber++;
+					}
+					field.append((char) c);
+				}
+			} else if(c == '"' && field.length() == 0) {
+				quoted = true;
+			} else if(c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else if(c == '\r' && peek() == '\n') {
+				// end of line is handled with the \n
+			} else if(c == '\n' || c < 0) {
+				fields.add(field.toString());
+				lineNumber++;
+				return fields.toArray(new String[fields.size()]);
+			} else {
+				field.append((char) c);
+			}
+		}
+	}
+
+	/**
+	 * Returns the line the next record starts on
+	 * @return					Line number, starting at 1
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Returns whether a record is a blank line
+	 * @param record			Record returned by readRecord
+	 * @return					True if the record has a single empty field
+	 */
+	public static boolean isBlank(String[] record) {
+		return record.length == 1 && record[0].trim().isEmpty();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private int next() throws IOException {
+		int c = peek();
+		if(c >= 0) {
+			position++;
+		}
+		return c;
+	}
+
+	private int peek() throws IOException {
+		if(position == limit) {
+			limit = reader.read(buffer, 0, buffer.length);
+			position = 0;
+			if(limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position];
+	}
+}
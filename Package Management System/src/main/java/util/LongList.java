@@ -0,0 +1,91 @@
+package main.java.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive longs, so that package IDs are not boxed.
+ *
+ * Not thread safe.
+ */
+public class LongList {
+
+	private static final long[] EMPTY = {};
+
+	private long[] elements;
+	private int size;
+
+	public LongList() {
+		this.elements = EMPTY;
+	}
+
+	/**
+	 * @param other				List to copy
+	 */
+	public LongList(LongList other) {
+		this.elements = Arrays.copyOf(other.elements, other.size);
+		this.size = other.size;
+	}
+
+	public void add(long value) {
+		if(size == elements.length) {
+			elements = Arrays.copyOf(elements, Math.max(4, size * 2));
+		}
+		elements[size++] = value;
+	}
+
+	public long get(int index) {
+		if(index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return elements[index];
+	}
+
+	/**
+	 * Removes the first occurrence of a value, keeping the order of the others
+	 * @param value				Value to remove
+	 * @return					True if the value was in the list
+	 */
+	public boolean remove(long value) {
+		int index = indexOf(value);
+		if(index < 0) {
+			return false;
+		}
+		System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+		size--;
+		return true;
+	}
+
+	public int indexOf(long value) {
+		for (int i = 0; i < size; i++) {
+			if(elements[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean contains(long value) {
+		return indexOf(value) >= 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the values in the list
+	 * @return					New array of the values
+	 */
+	public long[] toArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+}
@@ -0,0 +1,252 @@
+package main.java.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to objects, using open addressing with linear
+ * probing so that keys are never boxed. Removal shifts later entries of a probe
+ * sequence back instead of leaving tombstones.
+ *
+ * Not thread safe.
+ *
+ * @param <V>				Type of the values
+ */
+public class LongObjectMap<V> {
+
+	private static final int MIN_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	// a key of 0 marks an empty slot, so the value of key 0 is stored separately
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int size;
+	private int resizeAt;
+
+	private boolean hasZeroKey;
+	private Object zeroValue;
+
+	public LongObjectMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize		Number of entries to hold without resizing
+	 */
+	public LongObjectMap(int expectedSize) {
+		allocate(tableSize(expectedSize));
+	}
+
+	/**
+	 * Returns the value of a key
+	 * @param key				Key to look up
+	 * @return					Value of the key, or null if it is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		if(key == 0) {
+			return hasZeroKey ? (V) zeroValue : null;
+		}
+		for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+			if(keys[slot] == key) {
+				return (V) values[slot];
+			}
+		}
+		return null;
+	}
+
+	public boolean containsKey(long key) {
+		if(key == 0) {
+			return hasZeroKey;
+		}
+		for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+			if(keys[slot] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the value of a key
+	 * @param key				Key to set
+	 * @param value				New value of the key
+	 * @return					Previous value of the key, or null if it was not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if(key == 0) {
+			V previous = (V) zeroValue;
+			if(!hasZeroKey) {
+				hasZeroKey = true;
+				size++;
+			}
+			zeroValue = value;
+			return previous;
+		}
+		int slot = slot(key);
+		for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+			if(keys[slot] == key) {
+				V previous = (V) values[slot];
+				values[slot] = value;
+				return previous;
+			}
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if(++size > resizeAt) {
+			rehash(keys.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes a key from the map
+	 * @param key				Key to remove
+	 * @return					Value of the key, or null if it was not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		if(key == 0) {
+			V previous = (V) zeroValue;
+			if(hasZeroKey) {
+				hasZeroKey = false;
+				zeroValue = null;
+				size--;
+			}
+			return previous;
+		}
+		for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+			if(keys[slot] == key) {
+				V previous = (V) values[slot];
+				shiftBack(slot);
+				size--;
+				return previous;
+			}
+		}
+		return null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(values, null);
+		hasZeroKey = false;
+		zeroValue = null;
+		size = 0;
+	}
+
+	/**
+	 * Returns every key in the map
+	 * @return					New array of the keys, in no particular order
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int i = 0;
+		if(hasZeroKey) {
+			result[i++] = 0;
+		}
+		for (long key: keys) {
+			if(key != 0) {
+				result[i++] = key;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns every value in the map
+	 * @return					New list of the values, in the same order as keys()
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<V> values() {
+		ArrayList<V> result = new ArrayList<V>(size);
+		if(hasZeroKey) {
+			result.add((V) zeroValue);
+		}
+		for (int slot = 0; slot < keys.length; slot++) {
+			if(keys[slot] != 0) {
+				result.add((V) values[slot]);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("{");
+		long[] allKeys = keys();
+		for (int i = 0; i < allKeys.length; i++) {
+			if(i > 0) {
+				s.append(", ");
+			}
+			s.append(allKeys[i]).append('=').append(get(allKeys[i]));
+		}
+		return s.append('}').toString();
+	}
+
+	/*
+	 * Closes the gap left by removing the entry in slot, moving back any later
+	 * entry of the probe sequence that would no longer be reachable
+	 */
+	private void shiftBack(int slot) {
+		int gap = slot;
+		for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+			int home = slot(keys[next]);
+			// the entry can move into the gap if its home is not between the gap and next
+			if(((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+		}
+		keys[gap] = 0;
+		values[gap] = null;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if(key != 0) {
+				int slot = slot(key);
+				while(keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		resizeAt = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private int slot(long key) {
+		// package IDs are timestamps, so spread the low bits before masking
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private static int tableSize(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while(capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+}
@@ -12,12 +12,33 @@ public class Package {
 	private Date checkOutDate;
 	private boolean notificationSent;
 	
+	// the dates in epoch millis, kept so that comparisons do not go through Date.
+	// Transient, so they are never read from or written to JSON.
+	private final transient long checkInMillis;
+	private transient long checkOutMillis;
+	
 	
 	public Package(long packageID, String comment, Date checkInDate) {
 		this.packageID = packageID;
 		this.comment = comment;
 		this.checkInDate = checkInDate;
 		this.notificationSent = false;
+		this.checkInMillis = checkInDate == null ? Long.MIN_VALUE : checkInDate.getTime();
+		this.checkOutMillis = Long.MAX_VALUE;
+	}
+	
+	/*
+	 * Copy constructor, so that a stored package can be replaced instead of modified
+	 */
+	public Package(Package other) {
+		this.packageID = other.packageID;
+		this.comment = other.comment;
+		this.checkInDate = other.checkInDate == null ? null : new Date(other.checkInDate.getTime());
+		this.checkOutDate = other.checkOutDate == null ? null : new Date(other.checkOutDate.getTime());
+		this.notificationSent = other.notificationSent;
+		// derived from the dates, in case other was not built by a constructor
+		this.checkInMillis = checkInDate == null ? Long.MIN_VALUE : checkInDate.getTime();
+		this.checkOutMillis = checkOutDate == null ? Long.MAX_VALUE : checkOutDate.getTime();
 	}
 	
 	
@@ -52,8 +73,26 @@ public class Package {
 		return checkInDate;
 	}
 	
+	/**
+	 * Returns the check in date in epoch millis
+	 * @return					Check in time, or Long.MIN_VALUE if there is no check in date
+	 */
+	public long getCheckInMillis() {
+		return checkInMillis;
+	}
+	
+	/**
+	 * Returns the check out date in epoch millis
+	 * @return					Check out time, or Long.MAX_VALUE if the package has not
+	 * 							been checked out, so that those sort last
+	 */
+	public long getCheckOutMillis() {
+		return checkOutMillis;
+	}
+	
 	public void setCheckOutDate(Date checkOutDate) {
 		this.checkOutDate = checkOutDate;
+		this.checkOutMillis = checkOutDate == null ? Long.MAX_VALUE : checkOutDate.getTime();
 	}
 	public void setComment(String comment) {
 		this.comment = comment;
@@ -10,11 +10,20 @@ public class Person {
 	private String emailAddress;
 	private final String personID;
 	
+	// lower case sort keys, kept so that comparisons do not convert the names each time.
+	// Transient, so they are never read from or written to JSON.
+	private transient String lastNameKey;
+	private transient String firstNameKey;
+	private final transient String personIDKey;
+	
 	public Person(String lastName, String firstName, String emailAddress, String personID) {
 		this.lastName = lastName;
 		this.firstName = firstName;
 		this.emailAddress = emailAddress;
 		this.personID = personID;
+		this.lastNameKey = sortKey(lastName);
+		this.firstNameKey = sortKey(firstName);
+		this.personIDKey = sortKey(personID);
 	}
 	
 	/*
@@ -50,6 +59,20 @@ public class Person {
 	public String getPersonID() {
 		return personID;
 	}
+	
+	/*
+	 * Sort keys: the lower case lastName, firstName and personID
+	 */
+	
+	public String getLastNameKey() {
+		return lastNameKey;
+	}
+	public String getFirstNameKey() {
+		return firstNameKey;
+	}
+	public String getPersonIDKey() {
+		return personIDKey;
+	}
 
 	/*
 	 * Setters:
@@ -60,10 +83,12 @@ public class Person {
 
 	public void setLastName(String lastName) {
 		this.lastName = lastName;
+		this.lastNameKey = sortKey(lastName);
 	}
 
 	public void setFirstName(String firstName) {
 		this.firstName = firstName;
+		this.firstNameKey = sortKey(firstName);
 	}
 
 	public void setEmailAddress(String email) {
@@ -78,5 +103,9 @@ public class Person {
 	public static String generateEmail(String netID) {
 		return netID + "@rice.edu";
 	}
+	
+	private static String sortKey(String s) {
+		return s == null ? null : s.toLowerCase();
+	}
 
 }
@@ -165,6 +165,31 @@ public interface IViewToModelAdaptor {
 	 */
 	public ArrayList<Pair<Person,Package>> getPackages(String filter, String sort);
 	
+	/**
+	 * Returns one page of the packages with the appropriate filters applied. Ties in
+	 * the sort are broken by package ID.
+	 * 
+	 * @param filter			String containing filtering information
+	 * @param sort				String containing sorting information
+	 * @param offset			Number of (person, package) pairs to skip
+	 * @param limit				Maximum number of (person, package) pairs to return
+	 * @return					ArrayList of (person, package) pairs in the page
+	 */
+	public ArrayList<Pair<Person,Package>> getPackages(String filter, String sort, int offset, int limit);
+	
+	/**
+	 * Returns the page of packages following the last (person, package) pair of a
+	 * previous page, with the appropriate filters applied
+	 * 
+	 * @param filter			String containing filtering information
+	 * @param sort				String containing sorting information
+	 * @param after				Last (person, package) pair of the previous page
+	 * @param limit				Maximum number of (person, package) pairs to return
+	 * @return					ArrayList of (person, package) pairs in the page
+	 */
+	public ArrayList<Pair<Person,Package>> getPackagesAfter(String filter, String sort, 
+			Pair<Person,Package> after, int limit);
+	
 	/**
 	 * Reads a list of people from a csv file and adds the people to the database
 	 * CSV format: LastName,FirstName,EmailAddress,PersonID 
@@ -0,0 +1,239 @@
+package main.java.view.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+import main.java.util.Person;
+
+/**
+ * Autocomplete engine for persons, built once from the person list so that each
+ * keystroke only looks up the typed text.
+ *
+ * Results are ranked in three tiers, each in alphabetical order:
+ * 		persons whose "LastName, FirstName (PersonID)" entry starts with the text
+ * 		persons with another word of the entry, such as the first name or ID, starting with the text
+ * 		persons whose entry contains the text anywhere
+ * The first two tiers come from prefix tries, the last from a scan that only runs
+ * when the tries do not fill the result cap. The tries stop at MAX_DEPTH characters
+ * to bound their size, so longer text is checked against the persons found there.
+ */
+public class PersonAutocomplete {
+
+	private static final int MAX_DEPTH = 8;
+
+	private Person[] persons;
+	private String[] entries;
+	private TrieNode entryTrie;
+	private TrieNode wordTrie;
+
+	/**
+	 * @param personList		Persons to complete
+	 */
+	public PersonAutocomplete(ArrayList<Person> personList) {
+		this.persons = personList.toArray(new Person[personList.size()]);
+		// sort so that every tier comes out in alphabetical order
+		Arrays.sort(persons, (a, b) -> entryOf(a).compareToIgnoreCase(entryOf(b)));
+
+		this.entries = new String[persons.length];
+		this.entryTrie = new TrieNode();
+		this.wordTrie = new TrieNode();
+		for (int i = 0; i < persons.length; i++) {
+			String entry = entryOf(persons[i]).toLowerCase();
+			entries[i] = entry;
+			entryTrie.insert(entry, 0, Math.min(entry.length(), MAX_DEPTH), i);
+			// index every word after the first, which the entry trie already covers
+			for (int start = 1; start < entry.length(); start++) {
+				if(isWordStart(entry, start)) {
+					int end = start;
+					while(end < entry.length() && end - start < MAX_DEPTH &&
+							Character.isLetterOrDigit(entry.charAt(end))) {
+						end++;
+					}
+					wordTrie.insert(entry, start, end, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the best matching persons for the typed text
+	 * @param text				Text typed by the user
+	 * @param limit				Maximum number of persons to return
+	 * @return					Matching persons, best first
+	 */
+	public ArrayList<Person> complete(String text, int limit) {
+		String search = text.trim().toLowerCase();
+		ArrayList<Person> result = new ArrayList<Person>();
+		if(search.isEmpty()) {
+			return result;
+		}
+
+		Matches matches = new Matches(persons.length, limit);
+		collect(entryTrie, search, matches, i -> entries[i].startsWith(search));
+		collect(wordTrie, search, matches, i -> hasWordStartingWith(entries[i], search));
+
+		// substring fallback
+		for (int i = 0; i < entries.length && !matches.isFull(); i++) {
+			if(entries[i].contains(search)) {
+				matches.add(i);
+			}
+		}
+
+		// the matches are marked by index, so put them back in tier order
+		rank(result, search, matches.added, limit);
+		return result;
+	}
+
+	/**
+	 * Returns the entry shown for a person in the combo box
+	 * @param person			Person object
+	 * @return					String representation of person object LastName, FirstName (PersonID)
+	 */
+	public static String entryOf(Person person) {
+		return person.getLastFirstName() + " (" + person.getPersonID() + ")";
+	}
+
+	private void collect(TrieNode trie, String search, Matches matches, IntPredicate check) {
+		TrieNode node = trie.find(search.substring(0, Math.min(search.length(), MAX_DEPTH)));
+		if(node != null) {
+			// text longer than the trie depth has to be checked against each person
+			node.collect(matches, search.length() > MAX_DEPTH ? check : i -> true);
+		}
+	}
+
+	private void rank(ArrayList<Person> result, String search, BitSet added, int limit) {
+		// tier 1: the entry starts with the search
+		for (int i = added.nextSetBit(0); i >= 0 && result.size() < limit; i = added.nextSetBit(i + 1)) {
+			if(entries[i].startsWith(search)) {
+				result.add(persons[i]);
+			}
+		}
+		// tier 2: a later word starts with the search
+		for (int i = added.nextSetBit(0); i >= 0 && result.size() < limit; i = added.nextSetBit(i + 1)) {
+			if(!entries[i].startsWith(search) && hasWordStartingWith(entries[i], search)) {
+				result.add(persons[i]);
+			}
+		}
+		// tier 3: anywhere else
+		for (int i = added.nextSetBit(0); i >= 0 && result.size() < limit; i = added.nextSetBit(i + 1)) {
+			if(!entries[i].startsWith(search) && !hasWordStartingWith(entries[i], search)) {
+				result.add(persons[i]);
+			}
+		}
+	}
+
+	private static boolean hasWordStartingWith(String entry, String search) {
+		for (int start = entry.indexOf(search, 1); start > 0; start = entry.indexOf(search, start + 1)) {
+			if(isWordStart(entry, start)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isWordStart(String entry, int index) {
+		return Character.isLetterOrDigit(entry.charAt(index)) &&
+				!Character.isLetterOrDigit(entry.charAt(index - 1));
+	}
+
+	/*
+	 * Persons matched so far, by index, up to a limit
+	 */
+	private static class Matches {
+		private BitSet added;
+		private int count;
+		private int limit;
+
+		Matches(int size, int limit) {
+			this.added = new BitSet(size);
+			this.limit = limit;
+		}
+
+		void add(int personIndex) {
+			if(!added.get(personIndex)) {
+				added.set(personIndex);
+				count++;
+			}
+		}
+
+		boolean isFull() {
+			return count >= limit;
+		}
+	}
+
+	/*
+	 * Node of a prefix trie over words of the entries, with children kept sorted
+	 * by character. Each node lists the persons whose indexed text ends there.
+	 */
+	private static class TrieNode {
+		private static final char[] NO_KEYS = {};
+		private static final TrieNode[] NO_CHILDREN = {};
+		private static final int[] NO_PERSONS = {};
+
+		private char[] keys = NO_KEYS;
+		private TrieNode[] children = NO_CHILDREN;
+		private int[] personIndices = NO_PERSONS;
+
+		void insert(String s, int start, int end, int personIndex) {
+			TrieNode node = this;
+			for (int i = start; i < end; i++) {
+				node = node.child(s.charAt(i), true);
+			}
+			node.personIndices = Arrays.copyOf(node.personIndices, node.personIndices.length + 1);
+			node.personIndices[node.personIndices.length - 1] = personIndex;
+		}
+
+		TrieNode find(String prefix) {
+			TrieNode node = this;
+			for (int i = 0; i < prefix.length() && node != null; i++) {
+				node = node.child(prefix.charAt(i), false);
+			}
+			return node;
+		}
+
+		/*
+		 * Adds the persons under this node that pass check to the matches, depth
+		 * first in character order, until the matches are full
+		 */
+		void collect(Matches matches, IntPredicate check) {
+			for (int personIndex: personIndices) {
+				if(matches.isFull()) {
+					return;
+				}
+				if(check.test(personIndex)) {
+					matches.add(personIndex);
+				}
+			}
+			for (TrieNode child: children) {
+				if(matches.isFull()) {
+					return;
+				}
+				child.collect(matches, check);
+			}
+		}
+
+		private TrieNode child(char c, boolean create) {
+			int index = Arrays.binarySearch(keys, c);
+			if(index >= 0) {
+				return children[index];
+			}
+			if(!create) {
+				return null;
+			}
+			int insertAt = -index - 1;
+			char[] newKeys = new char[keys.length + 1];
+			TrieNode[] newChildren = new TrieNode[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, insertAt);
+			System.arraycopy(children, 0, newChildren, 0, insertAt);
+			newKeys[insertAt] = c;
+			newChildren[insertAt] = new TrieNode();
+			System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+			System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+			keys = newKeys;
+			children = newChildren;
+			return newChildren[insertAt];
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.awt.event.KeyEvent;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 import javax.swing.JComboBox;
+import javax.swing.Timer;
 import javax.swing.text.JTextComponent;
 
 import main.java.util.Person;
@@ -15,8 +16,15 @@ public class PersonComboBox extends JComboBox<String>{
 	 * 
 	 */
 	private static final long serialVersionUID = 6672267768163626009L;
+	
+	// most persons shown in the list, and the pause in typing before it is updated
+	private static final int MAX_RESULTS = 50;
+	private static final int DEBOUNCE_MILLIS = 120;
+	
 	private ArrayList<Person> personList;
-	private ArrayList<Person> currentPersons;
+	private PersonAutocomplete autocomplete;
+	private PersonComboBoxModel personModel;
+	private Timer debounceTimer;
 	private final JTextComponent inputTextBox = (JTextComponent) getEditor().getEditorComponent();
 
 
@@ -25,12 +33,24 @@ public class PersonComboBox extends JComboBox<String>{
 	public PersonComboBox() {
 		
 		personList = new ArrayList<Person>();
-		currentPersons = new ArrayList<Person>();
+		autocomplete = new PersonAutocomplete(personList);
+		personModel = new PersonComboBoxModel();
+		setModel(personModel);
+		
+		// only search once typing pauses
+		debounceTimer = new Timer(DEBOUNCE_MILLIS, e -> setMatchingPersons());
+		debounceTimer.setRepeats(false);
+		
 		inputTextBox.addKeyListener(new KeyAdapter() {
 			public void keyTyped(KeyEvent ke) {
 				char key = ke.getKeyChar();
 				if (key == '\n') {
-					if(getSelectedIndex() == -1) {
+					// bring the list up to date with what was typed before choosing
+					if(debounceTimer.isRunning()) {
+						debounceTimer.stop();
+						setMatchingPersons();
+					}
+					if(getSelectedIndex() == -1 && personModel.getSize() > 0) {
 						setSelectedIndex(0);
 					}
 				} else if (Character.isLetterOrDigit(key) || 
@@ -39,7 +59,7 @@ public class PersonComboBox extends JComboBox<String>{
 						key == ',' ||
 						key == '(' ||
 						key == ')') {
-					setMatchingPersons(key);
+					debounceTimer.restart();
 				}
 			}
 		});
@@ -57,56 +77,43 @@ public class PersonComboBox extends JComboBox<String>{
 			return null;
 		}
 		logger.info("Selected index is: " + getSelectedIndex());
-		logger.info("currentPerson size: " + currentPersons.size());
-		return currentPersons.get(getSelectedIndex());
+		logger.info("currentPerson size: " + personModel.getSize());
+		return personModel.getPersonAt(selectedIndex);
 	}
 	
 	/**
-	 * Set the list of people available for the list
+	 * Set the list of people available for the list, all of which are listed until
+	 * the user types
 	 * @param personList			ArrayList of persons to put in list
 	 */
 	public void setPersonList(ArrayList<Person> personList) {
-		this.personList = personList;
-		for (Person person: personList) {
-			addItem(getPersonEntry(person));
-		}
+		this.personList = new ArrayList<Person>(personList);
+		autocomplete = new PersonAutocomplete(personList);
+		personModel.setPersons(this.personList);
+	}
+	
+	@Override
+	public void removeAllItems() {
+		debounceTimer.stop();
+		personModel.setPersons(new ArrayList<Person>());
 	}
 
 	/**
-	 * Find persons that match the search string and put them in the 
-	 * JComboBox list.
+	 * Find persons that match the text typed so far and put them in the 
+	 * JComboBox list. With no text every person is listed.
 	 */
-	private void setMatchingPersons(char input) {
-		String oldInput = inputTextBox.getText();
-		String search = oldInput + input;
-		
-		// handle backspace
-		if (input == '\b') {
-			if(oldInput.length() >= 1) {
-			search = search.substring(0, search.length()-1);
-			} else if (oldInput.length() == 0) {
-				search = "";
-			}
-		} 
-		removeAllItems();
-		currentPersons.clear();
+	private void setMatchingPersons() {
+		String search = inputTextBox.getText();
 		
-		ArrayList<Person> topPersons = new ArrayList<Person>();
-		// collect persons that contain the search string
-		for (Person person: personList) {
-			String personString = getPersonEntry(person);
-			if(personString.toLowerCase().startsWith(search.toLowerCase())) {
-				topPersons.add(person);
-			} else if(personString.toLowerCase().contains(search.toLowerCase())) {
-				currentPersons.add(person);
-			}
+		if(search.trim().isEmpty()) {
+			personModel.setPersons(personList);
+			setPopupVisible(false);
+			inputTextBox.setText(search);
+			return;
 		}
-		currentPersons.addAll(0, topPersons);
 		
-		// add all persons to list
-		for (Person person: currentPersons) {
-			addItem(getPersonEntry(person));
-		}
+		ArrayList<Person> currentPersons = autocomplete.complete(search, MAX_RESULTS);
+		personModel.setPersons(currentPersons);
 		
 		if(currentPersons.size() > 0) {
 			if (currentPersons.size() > 8) {
@@ -119,19 +126,6 @@ public class PersonComboBox extends JComboBox<String>{
 			setPopupVisible(false);
 		}
 		
-		if(search == "") {
-			setPopupVisible(false);
-		}
-		
-		inputTextBox.setText(oldInput);
-	}
-	
-	/**
-	 * Return a string that represents the entry for a person
-	 * @param person				Person object
-	 * @return						String representation of person object LastName, FirstName (PersonID)
-	 */
-	private String getPersonEntry(Person person) {
-		return person.getLastFirstName() + " (" + person.getPersonID() + ")";
+		inputTextBox.setText(search);
 	}
 }
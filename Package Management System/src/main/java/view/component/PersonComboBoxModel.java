@@ -0,0 +1,75 @@
+package main.java.view.component;
+
+import java.util.ArrayList;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+
+import main.java.util.Person;
+
+/**
+ * Combo box model holding the current autocomplete results. A new result set
+ * replaces the old one with a single change event, instead of one event per item.
+ */
+public class PersonComboBoxModel extends AbstractListModel<String> implements ComboBoxModel<String> {
+
+	private static final long serialVersionUID = -3318127047404386532L;
+
+	private ArrayList<Person> persons;
+	private ArrayList<String> entries;
+	private Object selectedItem;
+
+	public PersonComboBoxModel() {
+		this.persons = new ArrayList<Person>();
+		this.entries = new ArrayList<String>();
+	}
+
+	/**
+	 * Replaces the persons in the list
+	 * @param results			Persons to show, in order
+	 */
+	public void setPersons(ArrayList<Person> results) {
+		int oldSize = entries.size();
+		persons = new ArrayList<Person>(results);
+		entries = new ArrayList<String>(results.size());
+		for (Person person: results) {
+			entries.add(PersonAutocomplete.entryOf(person));
+		}
+		int changed = Math.max(oldSize, entries.size());
+		if(changed > 0) {
+			fireContentsChanged(this, 0, changed - 1);
+		}
+	}
+
+	/**
+	 * Returns the person shown at an index of the list
+	 * @param index				Index in the list
+	 * @return					Person at the index, or null if there is none
+	 */
+	public Person getPersonAt(int index) {
+		return index >= 0 && index < persons.size() ? persons.get(index) : null;
+	}
+
+	@Override
+	public int getSize() {
+		return entries.size();
+	}
+
+	@Override
+	public String getElementAt(int index) {
+		return entries.get(index);
+	}
+
+	@Override
+	public void setSelectedItem(Object item) {
+		if(item == null ? selectedItem != null : !item.equals(selectedItem)) {
+			selectedItem = item;
+			fireContentsChanged(this, -1, -1);
+		}
+	}
+
+	@Override
+	public Object getSelectedItem() {
+		return selectedItem;
+	}
+}